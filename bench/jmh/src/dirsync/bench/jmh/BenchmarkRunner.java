@@ -0,0 +1,77 @@
+/*
+ * BenchmarkRunner.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dirsync.Const;
+
+/**
+ * Runs all (or the selected) benchmarks and writes the results as JSON, so
+ * that the results of two releases can be compared (e.g. with the JMH
+ * visualizer or <code>jq</code>).
+ * <p>
+ * Usage:
+ * <code>java -cp classes:jmh-libs dirsync.bench.jmh.BenchmarkRunner [regexp [resultfile]]</code>
+ * <br>
+ * The result file defaults to
+ * <code>dirsync-bench-&lt;version&gt;-&lt;date&gt;.json</code> in the
+ * current directory.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args
+	 *            The regular expression of the benchmarks to run and the
+	 *            result file (optional).
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String include = (args.length > 0) ? args[0] : "dirsync\\.bench\\.jmh\\..*";
+		File result = new File((args.length > 1) ? args[1] : "dirsync-bench-"
+				+ Const.VERSION.substring(Const.VERSION.lastIndexOf(' ') + 1) + "-"
+				+ new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+
+		Options options = new OptionsBuilder()
+				.include(include)
+				.warmupIterations(3)
+				.measurementIterations(5)
+				.forks(1)
+				.resultFormat(ResultFormatType.JSON)
+				.result(result.getAbsolutePath())
+				.build();
+
+		new Runner(options).run();
+		System.out.println("Results written to '" + result.getAbsolutePath() + "'.");
+	}
+}
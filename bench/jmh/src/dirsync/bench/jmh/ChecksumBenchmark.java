@@ -0,0 +1,82 @@
+/*
+ * ChecksumBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dirsync.DirSync;
+import dirsync.tools.FileTools;
+
+/**
+ * Measures <code>FileTools.checksum</code> with every checksum algorithm
+ * (<code>dirsync.verify.checksum</code>) across file sizes.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChecksumBenchmark {
+
+	@Param({ "4096", "1048576", "16777216" })
+	public long size;
+
+	@Param({ "CRC32C", "CRC32", "Adler32" })
+	public String algorithm;
+
+	private File dir;
+
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.initDirSync();
+		DirSync.getProperties().setProperty("dirsync.verify.checksum", algorithm);
+
+		dir = Fixtures.createDir("dirsync-bench-checksum");
+		file = new File(dir, "file.bin");
+		Fixtures.createFile(file, size, size);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		DirSync.getProperties().setProperty("dirsync.verify.checksum", "CRC32C");
+		Fixtures.delete(dir);
+	}
+
+	@Benchmark
+	public long checksum() {
+		return FileTools.checksum(file, FileTools.newChecksum());
+	}
+}
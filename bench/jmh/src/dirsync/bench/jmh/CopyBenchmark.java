@@ -0,0 +1,94 @@
+/*
+ * CopyBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dirsync.DirSync;
+import dirsync.tools.FileTools;
+
+/**
+ * Measures <code>FileTools.copy</code> with every copy engine
+ * (<code>stream</code> is the old stream copy, <code>transfer</code> the
+ * NIO copy) and with the automatic selection, across file sizes.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CopyBenchmark {
+
+	@Param({ "4096", "65536", "1048576", "16777216" })
+	public long size;
+
+	@Param({ "stream", "transfer", "files", "mmap", "auto" })
+	public String engine;
+
+	private File dir;
+
+	private File src;
+
+	private File dst;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.initDirSync();
+		DirSync.getProperties().setProperty("dirsync.copy.engine", engine);
+
+		dir = Fixtures.createDir("dirsync-bench-copy");
+		src = new File(dir, "src.bin");
+		dst = new File(dir, "dst.bin");
+		Fixtures.createFile(src, size, size);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		DirSync.getProperties().setProperty("dirsync.copy.engine", "auto");
+		Fixtures.delete(dir);
+	}
+
+	@Benchmark
+	public void copy() throws Exception {
+		FileTools.copy(src, dst);
+	}
+
+	@Benchmark
+	public long copyWithChecksum() throws Exception {
+		Checksum checksum = FileTools.newChecksum();
+		FileTools.copy(src, dst, checksum);
+		return checksum.getValue();
+	}
+}
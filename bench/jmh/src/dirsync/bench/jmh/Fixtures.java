@@ -0,0 +1,165 @@
+/*
+ * Fixtures.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import dirsync.DirSync;
+import dirsync.sync.Sync;
+import dirsync.tools.Log;
+
+/**
+ * Creates the fixtures of the benchmarks on local temporary storage
+ * (<code>java.io.tmpdir</code> or <code>dirsync.bench.dir</code>) and
+ * initializes DirSync as far as the benchmarked code needs it.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+final class Fixtures {
+
+	// Don't let anyone instantiate this class.
+	private Fixtures() {
+	}
+
+	/**
+	 * Initializes the properties, the synchronization and the (disabled) log
+	 * of DirSync. The properties are the defaults unless
+	 * <code>dirsync.home</code> points to a <code>dirsync.properties</code>.
+	 *
+	 * @throws Exception
+	 */
+	static void initDirSync() throws Exception {
+		if (DirSync.getProperties() == null) {
+			DirSync.loadProperties();
+		}
+		if (DirSync.getSync() == null) {
+			DirSync.setSync(new Sync());
+		}
+		if (DirSync.getLog() == null) {
+			DirSync.setLog(new Log(""));
+		}
+	}
+
+	/**
+	 * Creates a new, empty directory for a benchmark.
+	 *
+	 * @param name
+	 *            The prefix of the directory name.
+	 * @return The directory.
+	 * @throws IOException
+	 */
+	static File createDir(String name) throws IOException {
+		File parent = new File(System.getProperty("dirsync.bench.dir", System
+				.getProperty("java.io.tmpdir")));
+		File dir = File.createTempFile(name, "", parent);
+		if (!dir.delete() || !dir.mkdirs()) {
+			throw new IOException("Can't create the directory '" + dir + "'.");
+		}
+		return dir;
+	}
+
+	/**
+	 * Creates a file of the given size with random (incompressible) content.
+	 *
+	 * @param file
+	 *            The file to create.
+	 * @param size
+	 *            The size of the file.
+	 * @param seed
+	 *            The seed of the content.
+	 * @throws IOException
+	 */
+	static void createFile(File file, long size, long seed) throws IOException {
+		byte[] bytes = new byte[(int) Math.min(size, 1024 * 1024)];
+		new Random(seed).nextBytes(bytes);
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (long written = 0; written < size; written += bytes.length) {
+				out.write(bytes, 0, (int) Math.min(bytes.length, size - written));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a directory tree of source code like files: every directory
+	 * holds <code>filesPerDir</code> files with typical names and extensions
+	 * and <code>dirsPerDir</code> subdirectories.
+	 *
+	 * @param dir
+	 *            The root of the tree.
+	 * @param depth
+	 *            The depth of the tree.
+	 * @param dirsPerDir
+	 *            The number of subdirectories per directory.
+	 * @param filesPerDir
+	 *            The number of files per directory.
+	 * @throws IOException
+	 */
+	static void createTree(File dir, int depth, int dirsPerDir, int filesPerDir) throws IOException {
+		for (int i = 0; i < filesPerDir; i++) {
+			createFile(new File(dir, getName(i)), 0, i);
+		}
+		if (depth > 0) {
+			for (int i = 0; i < dirsPerDir; i++) {
+				File sub = new File(dir, (i % 5 == 0) ? "build" + i : "module" + i);
+				sub.mkdir();
+				createTree(sub, depth - 1, dirsPerDir, filesPerDir);
+			}
+		}
+	}
+
+	// the extensions of the generated file names
+	private static final String[] EXTENSIONS = { ".java", ".class", ".txt",
+			".xml", ".properties", ".jar", ".bak", ".tmp", ".html", ".gif" };
+
+	/**
+	 * Gets a typical file name.
+	 *
+	 * @param i
+	 *            The number of the file.
+	 * @return The file name.
+	 */
+	static String getName(int i) {
+		String prefix = (i % 7 == 0) ? "~" : (i % 11 == 0) ? "Test" : "File";
+		return prefix + i + EXTENSIONS[i % EXTENSIONS.length];
+	}
+
+	/**
+	 * Deletes a directory tree.
+	 *
+	 * @param file
+	 *            The root of the tree.
+	 */
+	static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			delete(files[i]);
+		}
+		file.delete();
+	}
+}
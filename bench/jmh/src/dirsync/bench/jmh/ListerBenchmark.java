@@ -0,0 +1,92 @@
+/*
+ * ListerBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dirsync.DirSync;
+import dirsync.directory.DirectoryLister;
+import dirsync.tools.PatternMatcher;
+
+/**
+ * Measures <code>DirectoryLister.listFiles(includes, excludes, ...)</code>
+ * for directories of different sizes (the directory is read from the page
+ * cache after the first invocation).
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListerBenchmark {
+
+	@Param({ "100", "10000" })
+	public int files;
+
+	@Param({ "*", "*.java;*.xml;*.properties" })
+	public String includes;
+
+	@Param({ "", "*.bak;*.tmp;~*;*.class" })
+	public String excludes;
+
+	private File dir;
+
+	private DirectoryLister lister;
+
+	private PatternMatcher includeMatcher;
+
+	private PatternMatcher excludeMatcher;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Fixtures.initDirSync();
+
+		dir = Fixtures.createDir("dirsync-bench-lister");
+		Fixtures.createTree(dir, 0, 0, files);
+
+		lister = new DirectoryLister(dir, DirSync.getLog(), false);
+		includeMatcher = new PatternMatcher(includes);
+		excludeMatcher = new PatternMatcher(excludes);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.delete(dir);
+	}
+
+	@Benchmark
+	public File[] listFiles() {
+		return lister.listFiles(includeMatcher, excludeMatcher, false);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * PatternBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dirsync.tools.FileTools;
+import dirsync.tools.PatternMatcher;
+
+/**
+ * Measures <code>FileTools.checkFileMatchesPatterns</code> with the file
+ * patterns as strings (regular expressions compiled on every call) and
+ * precompiled (<code>PatternMatcher</code>), for typical include and exclude
+ * pattern sets.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PatternBenchmark {
+
+	// the number of names matched per invocation
+	private static final int NAMES = 1000;
+
+	@Param({ "*", "*.java;*.xml;*.properties", "*.bak;*.tmp;~*;*.class;build*;Thumbs.db;*.o;*.obj;*.log;*.swp" })
+	public String patterns;
+
+	private File[] files;
+
+	private String[] regex;
+
+	private PatternMatcher matcher;
+
+	@Setup
+	public void setUp() {
+		files = new File[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			files[i] = new File("/home/user/project/src", Fixtures.getName(i));
+		}
+
+		// the patterns as regular expressions
+		StringTokenizer st = new StringTokenizer(patterns, ",;");
+		regex = new String[st.countTokens()];
+		for (int i = 0; i < regex.length; i++) {
+			regex[i] = FileTools.getRegEx(st.nextToken());
+		}
+
+		matcher = new PatternMatcher(patterns);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public int matchRegex() {
+		int matches = 0;
+		for (int i = 0; i < files.length; i++) {
+			if (FileTools.checkFileMatchesPatterns(files[i], regex)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public int matchPrecompiled() {
+		int matches = 0;
+		for (int i = 0; i < files.length; i++) {
+			if (FileTools.checkFileMatchesPatterns(files[i], matcher)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * ReplacePathBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench.jmh;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dirsync.directory.Directory;
+
+/**
+ * Measures <code>Directory.replacePath</code> for the files of a deep
+ * directory (no file system access).
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReplacePathBenchmark {
+
+	// the number of files per invocation
+	private static final int FILES = 1000;
+
+	private File srcPath;
+
+	private File dstPath;
+
+	private File[] files;
+
+	@Setup
+	public void setUp() {
+		srcPath = new File("/home/user/projects/dirsync");
+		dstPath = new File("/mnt/backup/2006-12-11/dirsync");
+
+		File dir = new File(srcPath, "src/dirsync/directory/module3/build5");
+		files = new File[FILES];
+		for (int i = 0; i < FILES; i++) {
+			files[i] = new File(dir, Fixtures.getName(i));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public File[] replacePath() {
+		return Directory.replacePath(files, srcPath, dstPath);
+	}
+}
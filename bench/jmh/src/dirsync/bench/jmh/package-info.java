@@ -0,0 +1,11 @@
+/**
+ * Provides the JMH benchmarks of the file handling hot paths.
+ * <p>
+ * Compile the benchmarks against the classes of DirSync and the JMH
+ * libraries (<code>jmh-core</code> and, as annotation processor,
+ * <code>jmh-generator-annprocess</code>), then run
+ * <code>dirsync.bench.jmh.BenchmarkRunner</code>. The fixtures are created
+ * in <code>java.io.tmpdir</code> or the directory given by the system
+ * property <code>dirsync.bench.dir</code>.
+ */
+package dirsync.bench.jmh;
@@ -0,0 +1,150 @@
+/*
+ * CopyEngineBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import dirsync.tools.CopyEngine;
+
+/**
+ * Measures the throughput of every copy engine for several file sizes, so
+ * that the thresholds <code>dirsync.copy.smallfile</code> and
+ * <code>dirsync.copy.largefile</code> and the engine
+ * (<code>dirsync.copy.engine</code>) can be chosen for a machine.
+ * <p>
+ * Usage:
+ * <code>java -cp classes dirsync.bench.CopyEngineBenchmark [srcdir [dstdir]]</code>
+ * <br>
+ * The destination directory may be on another file system than the source
+ * directory. Note that the source files are read from the page cache after
+ * the first round.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class CopyEngineBenchmark {
+
+	// the size classes
+	private static final long[] SIZES = { 4 * 1024, 64 * 1024, 1024 * 1024,
+			16 * 1024 * 1024, 256 * 1024 * 1024 };
+
+	// bytes copied per size class and round
+	private static final long BYTES_PER_ROUND = 256 * 1024 * 1024;
+
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            The source and the destination directory (optional).
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		File srcDir = new File(args.length > 0 ? args[0] : System
+				.getProperty("java.io.tmpdir"), "dirsync-bench-src");
+		File dstDir = new File(args.length > 1 ? args[1] : srcDir.getParent(),
+				"dirsync-bench-dst");
+		srcDir.mkdirs();
+		dstDir.mkdirs();
+
+		CopyEngine[] engines = CopyEngine.getEngines();
+
+		System.out.print(pad("size", 10));
+		for (int e = 0; e < engines.length; e++) {
+			System.out.print(pad(engines[e].getName(), 12));
+		}
+		System.out.println("  (MB/s, best of " + ROUNDS + " rounds)");
+
+		try {
+			for (int s = 0; s < SIZES.length; s++) {
+				int files = (int) Math.max(1, BYTES_PER_ROUND / SIZES[s]);
+				File[] src = createFiles(srcDir, SIZES[s], files);
+
+				System.out.print(pad(format(SIZES[s]), 10));
+				for (int e = 0; e < engines.length; e++) {
+					long best = Long.MAX_VALUE;
+					for (int r = 0; r < ROUNDS; r++) {
+						long start = System.nanoTime();
+						for (int f = 0; f < files; f++) {
+							engines[e].copy(src[f], new File(dstDir, src[f].getName()), null);
+						}
+						best = Math.min(best, System.nanoTime() - start);
+					}
+					double mbs = (files * (double) SIZES[s] / (1024 * 1024)) / (best / 1e9);
+					System.out.print(pad(String.valueOf(Math.round(mbs)), 12));
+				}
+				System.out.println();
+
+				delete(srcDir);
+				delete(dstDir);
+			}
+		} finally {
+			delete(srcDir);
+			delete(dstDir);
+			srcDir.delete();
+			dstDir.delete();
+		}
+	}
+
+	private static File[] createFiles(File dir, long size, int n) throws IOException {
+		byte[] bytes = new byte[(int) Math.min(size, 1024 * 1024)];
+		new Random(size).nextBytes(bytes);
+
+		File[] files = new File[n];
+		for (int i = 0; i < n; i++) {
+			files[i] = new File(dir, "file" + i);
+			FileOutputStream out = new FileOutputStream(files[i]);
+			try {
+				for (long written = 0; written < size; written += bytes.length) {
+					out.write(bytes, 0, (int) Math.min(bytes.length, size - written));
+				}
+			} finally {
+				out.close();
+			}
+		}
+		return files;
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+
+	private static String format(long size) {
+		if (size >= 1024 * 1024) {
+			return (size / (1024 * 1024)) + " MB";
+		}
+		return (size / 1024) + " KB";
+	}
+
+	private static String pad(String s, int width) {
+		StringBuffer sb = new StringBuffer(s);
+		while (sb.length() < width) {
+			sb.insert(0, ' ');
+		}
+		return sb.toString();
+	}
+}
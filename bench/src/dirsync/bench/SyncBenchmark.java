@@ -0,0 +1,449 @@
+/*
+ * SyncBenchmark.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import dirsync.DirSync;
+import dirsync.directory.Directory;
+import dirsync.sync.Sync;
+import dirsync.tools.Log;
+import dirsync.tools.Progress;
+
+/**
+ * Measures whole runs of <code>Sync.synchronize</code> (without GUI) on
+ * generated source and destination trees. The destination tree is a copy of
+ * the source tree except for a fraction of changed, new (missing in the
+ * destination) and deleted (only in the destination) files. Every round
+ * generates the trees again and runs a preview and a synchronization.
+ * <p>
+ * Reported per run (median of the rounds): wall time, the time spent
+ * counting, copying and deleting (the phases doing most of the system
+ * calls), files/s, MB/s and the peak heap usage.
+ * <p>
+ * Usage:
+ * <code>java -cp classes dirsync.bench.SyncBenchmark [options]</code>
+ * <ul>
+ * <li><code>-dir path</code> the directory of the trees (default
+ * <code>java.io.tmpdir</code>),</li>
+ * <li><code>-files n</code> the number of source files (10000),</li>
+ * <li><code>-depth n</code> the depth of the tree (3),</li>
+ * <li><code>-fanout n</code> the subdirectories per directory (4),</li>
+ * <li><code>-minsize n</code>, <code>-maxsize n</code> the range of the file
+ * sizes in bytes; the sizes are distributed log-uniformly (1024,
+ * 1048576),</li>
+ * <li><code>-changed f</code>, <code>-new f</code>, <code>-deleted f</code>
+ * the fractions of changed, new and deleted files (0.05, 0.05, 0.05),</li>
+ * <li><code>-rounds n</code> the number of rounds (3),</li>
+ * <li><code>-baseline file</code> compares the results with the baseline
+ * file; the file is written if it doesn't exist,</li>
+ * <li><code>-update</code> writes the baseline file even if it exists,</li>
+ * <li><code>-threshold f</code> the tolerated regression (0.10 = 10%).</li>
+ * </ul>
+ * The exit code is 1 if a result is worse than the baseline by more than the
+ * threshold (times only if they differ by more than 20 ms).
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class SyncBenchmark {
+
+	// the phases reported separately (see Directory)
+	private static final String[] PHASES = { "Counting", "Copying", "Deleting" };
+
+	// the metrics of a run; "+" if higher is better
+	private static final String[] METRICS = { "wall.ms", "counting.ms",
+			"copying.ms", "deleting.ms", "files.per.s+", "mb.per.s+", "heap.peak.mb" };
+
+	// the smallest difference of a time regarded as regression
+	private static final double MIN_MS = 20;
+
+	private File root;
+
+	private int files = 10000;
+
+	private int depth = 3;
+
+	private int fanout = 4;
+
+	private long minSize = 1024;
+
+	private long maxSize = 1024 * 1024;
+
+	private double changed = 0.05;
+
+	private double added = 0.05;
+
+	private double deleted = 0.05;
+
+	private int rounds = 3;
+
+	private File baseline;
+
+	private boolean update;
+
+	private double threshold = 0.10;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            The options (see above).
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		SyncBenchmark bench = new SyncBenchmark();
+		bench.parseOptions(args);
+		System.exit(bench.run() ? 0 : 1);
+	}
+
+	private void parseOptions(String[] args) {
+		root = new File(System.getProperty("java.io.tmpdir"));
+
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("-update")) {
+				update = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				usage("Missing value of '" + option + "'.");
+			}
+			String value = args[++i];
+
+			if (option.equals("-dir")) {
+				root = new File(value);
+			} else if (option.equals("-files")) {
+				files = Integer.parseInt(value);
+			} else if (option.equals("-depth")) {
+				depth = Integer.parseInt(value);
+			} else if (option.equals("-fanout")) {
+				fanout = Math.max(1, Integer.parseInt(value));
+			} else if (option.equals("-minsize")) {
+				minSize = Long.parseLong(value);
+			} else if (option.equals("-maxsize")) {
+				maxSize = Long.parseLong(value);
+			} else if (option.equals("-changed")) {
+				changed = Double.parseDouble(value);
+			} else if (option.equals("-new")) {
+				added = Double.parseDouble(value);
+			} else if (option.equals("-deleted")) {
+				deleted = Double.parseDouble(value);
+			} else if (option.equals("-rounds")) {
+				rounds = Math.max(1, Integer.parseInt(value));
+			} else if (option.equals("-baseline")) {
+				baseline = new File(value);
+			} else if (option.equals("-threshold")) {
+				threshold = Double.parseDouble(value);
+			} else {
+				usage("Unknown option '" + option + "'.");
+			}
+		}
+		maxSize = Math.max(minSize, maxSize);
+	}
+
+	private static void usage(String message) {
+		System.out.println("ERROR: " + message + "\n");
+		System.out.println("Usage: java dirsync.bench.SyncBenchmark [-dir path] [-files n] [-depth n]"
+				+ " [-fanout n] [-minsize n] [-maxsize n] [-changed f] [-new f] [-deleted f]"
+				+ " [-rounds n] [-baseline file [-update] [-threshold f]]");
+		System.exit(2);
+	}
+
+	/**
+	 * Runs all rounds, prints the results and compares them with the
+	 * baseline.
+	 *
+	 * @return <code>false</code> if there is a regression.
+	 */
+	private boolean run() throws Exception {
+		System.setProperty("dirsync.home", root.getAbsolutePath());
+		DirSync.loadProperties();
+		DirSync.setLog(new Log(""));
+
+		File src = new File(root, "dirsync-bench-sync-src");
+		File dst = new File(root, "dirsync-bench-sync-dst");
+
+		System.out.println("Parameters: " + getParameters());
+
+		List previews = new ArrayList();
+		List syncs = new ArrayList();
+		try {
+			for (int r = 0; r < rounds; r++) {
+				delete(src);
+				delete(dst);
+				generate(src, dst);
+
+				previews.add(measure(src, dst, Sync.PREVIEW));
+				syncs.add(measure(src, dst, Sync.SYNCHRONIZATION));
+				System.out.println("Round " + (r + 1) + " of " + rounds + " finished.");
+			}
+		} finally {
+			delete(src);
+			delete(dst);
+		}
+
+		Properties results = new Properties();
+		results.setProperty("parameters", getParameters());
+		addMedian(results, "preview.", previews);
+		addMedian(results, "sync.", syncs);
+
+		System.out.println();
+		print(results, "preview.");
+		print(results, "sync.");
+
+		return compare(results);
+	}
+
+	private String getParameters() {
+		return "files=" + files + " depth=" + depth + " fanout=" + fanout + " size="
+				+ minSize + ".." + maxSize + " changed=" + changed + " new=" + added
+				+ " deleted=" + deleted;
+	}
+
+	/**
+	 * Generates the source tree and the destination tree.
+	 */
+	private void generate(File src, File dst) throws IOException {
+		Random random = new Random(files);
+		List dirs = new ArrayList();
+		createDirs(src, depth, dirs);
+
+		byte[] bytes = new byte[(int) Math.min(maxSize, 1024 * 1024)];
+		random.nextBytes(bytes);
+
+		for (int i = 0; i < files; i++) {
+			File dir = (File) dirs.get(i % dirs.size());
+			File file = new File(dir, "file" + i + ".dat");
+			// log-uniform between minSize and maxSize
+			long size = (long) Math.exp(Math.log(Math.max(1, minSize))
+					+ random.nextDouble() * (Math.log(Math.max(1, maxSize)) - Math.log(Math.max(1, minSize))));
+			write(file, bytes, size);
+
+			File copy = new File(dst, file.getAbsolutePath().substring(src.getAbsolutePath().length()));
+			double p = random.nextDouble();
+			if (p < added) {
+				continue; // new: only in the source tree
+			}
+			copy.getParentFile().mkdirs();
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+
+			if (p < added + changed) {
+				// changed: newer and different in the source tree
+				write(file, bytes, size + 1);
+				file.setLastModified(copy.lastModified() + 10000);
+			}
+		}
+
+		// deleted: only in the destination tree
+		int n = (int) Math.round(files * deleted);
+		for (int i = 0; i < n; i++) {
+			File dir = (File) dirs.get(i % dirs.size());
+			File file = new File(dst, new File(dir, "deleted" + i + ".dat").getAbsolutePath()
+					.substring(src.getAbsolutePath().length()));
+			file.getParentFile().mkdirs();
+			write(file, bytes, minSize);
+		}
+	}
+
+	private void createDirs(File dir, int level, List dirs) {
+		dir.mkdirs();
+		dirs.add(dir);
+		if (level > 0) {
+			for (int i = 0; i < fanout; i++) {
+				createDirs(new File(dir, "dir" + i), level - 1, dirs);
+			}
+		}
+	}
+
+	private static void write(File file, byte[] bytes, long size) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (long written = 0; written < size; written += bytes.length) {
+				out.write(bytes, 0, (int) Math.min(bytes.length, size - written));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Runs a preview or a synchronization and measures it.
+	 *
+	 * @return The metrics.
+	 */
+	private double[] measure(File src, File dst, int mode) {
+		Sync sync = new Sync();
+		Directory dir = (Directory) sync.getDirs().get(0);
+		dir.setName("bench");
+		dir.setSrc(src.getAbsolutePath());
+		dir.setDst(dst.getAbsolutePath());
+		dir.setWithSubfolders(true);
+		dir.setCopyNew(true);
+		dir.setCopyModified(true);
+		dir.setDelFiles(true);
+		dir.setDelDirs(true);
+		DirSync.setSync(sync);
+
+		System.gc();
+		List pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (Iterator iter = pools.iterator(); iter.hasNext();) {
+			((MemoryPoolMXBean) iter.next()).resetPeakUsage();
+		}
+
+		long start = System.nanoTime();
+		sync.synchronize(mode);
+		long wall = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+		if (sync.getError() > Sync.WARNING) {
+			throw new IllegalStateException("The synchronization failed (see the log).");
+		}
+
+		long heap = 0;
+		for (Iterator iter = pools.iterator(); iter.hasNext();) {
+			MemoryPoolMXBean pool = (MemoryPoolMXBean) iter.next();
+			if (pool.getType() == MemoryType.HEAP) {
+				heap += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		Progress progress = Progress.getProgress();
+		double[] metrics = new double[METRICS.length];
+		metrics[0] = wall;
+		for (int i = 0; i < PHASES.length; i++) {
+			metrics[1 + i] = progress.getPhaseTime(PHASES[i]);
+		}
+		metrics[4] = progress.getFiles() * 1000.0 / wall;
+		metrics[5] = progress.getBytes() / (1024.0 * 1024.0) * 1000.0 / wall;
+		metrics[6] = heap / (1024.0 * 1024.0);
+		return metrics;
+	}
+
+	private static void addMedian(Properties results, String prefix, List runs) {
+		for (int m = 0; m < METRICS.length; m++) {
+			double[] values = new double[runs.size()];
+			for (int r = 0; r < values.length; r++) {
+				values[r] = ((double[]) runs.get(r))[m];
+			}
+			Arrays.sort(values);
+			results.setProperty(prefix + getName(m), String.valueOf(Math.round(values[values.length / 2] * 10) / 10.0));
+		}
+	}
+
+	private static void print(Properties results, String prefix) {
+		for (int m = 0; m < METRICS.length; m++) {
+			String key = prefix + getName(m);
+			System.out.println(key + " = " + results.getProperty(key));
+		}
+	}
+
+	/**
+	 * Compares the results with the baseline (or writes the baseline).
+	 *
+	 * @return <code>false</code> if there is a regression.
+	 */
+	private boolean compare(Properties results) throws IOException {
+		if (baseline == null) {
+			return true;
+		}
+
+		if (update || !baseline.exists()) {
+			OutputStream out = new FileOutputStream(baseline);
+			try {
+				results.store(out, "- Baseline of the DirSync synchronization benchmark -");
+			} finally {
+				out.close();
+			}
+			System.out.println("\nBaseline written to '" + baseline.getAbsolutePath() + "'.");
+			return true;
+		}
+
+		Properties base = new Properties();
+		InputStream in = new FileInputStream(baseline);
+		try {
+			base.load(in);
+		} finally {
+			in.close();
+		}
+
+		if (!results.getProperty("parameters").equals(base.getProperty("parameters"))) {
+			System.out.println("\nERROR: The baseline was measured with other parameters: "
+					+ base.getProperty("parameters"));
+			return false;
+		}
+
+		boolean ok = true;
+		System.out.println("\nComparison with '" + baseline.getAbsolutePath() + "' (threshold "
+				+ Math.round(threshold * 100) + "%):");
+		String[] prefixes = { "preview.", "sync." };
+		for (int p = 0; p < prefixes.length; p++) {
+			for (int m = 0; m < METRICS.length; m++) {
+				String key = prefixes[p] + getName(m);
+				double value = Double.parseDouble(results.getProperty(key));
+				double expected = Double.parseDouble(base.getProperty(key, "0"));
+				if (expected <= 0) {
+					continue;
+				}
+				double change = (value - expected) / expected;
+				// a regression: slower, less throughput or more heap
+				boolean regression = METRICS[m].endsWith("+") ? change < -threshold : change > threshold;
+				// a few milliseconds are noise
+				if (METRICS[m].endsWith(".ms") && value - expected < MIN_MS) {
+					regression = false;
+				}
+				System.out.println("  " + key + ": " + expected + " -> " + value + " ("
+						+ (change >= 0 ? "+" : "") + Math.round(change * 1000) / 10.0 + "%)"
+						+ (regression ? "  REGRESSION" : ""));
+				ok &= !regression;
+			}
+		}
+		return ok;
+	}
+
+	private static String getName(int metric) {
+		return METRICS[metric].endsWith("+") ? METRICS[metric].substring(0, METRICS[metric].length() - 1)
+				: METRICS[metric];
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			delete(files[i]);
+		}
+		file.delete();
+	}
+}
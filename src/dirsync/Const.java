@@ -87,7 +87,11 @@ public abstract class Const {
 	+ DirSync.getOptionsMarker()
 	+ "quit] ["
 	+ DirSync.getOptionsMarker()
-	+ "nogui] <configfile>'\n"
+	+ "nogui] ["
+	+ DirSync.getOptionsMarker()
+	+ "watch] ["
+	+ DirSync.getOptionsMarker()
+	+ "reconcile] <configfile>'\n"
 	+ "  "
 	+ DirSync.getOptionsMarker()
 	+ "help    Display help on homepage, contact, and license.\n"
@@ -105,12 +109,20 @@ public abstract class Const {
 	+ "quit    Quits the program after the preview or the synchronization.\n"
 	+ "  "
 	+ DirSync.getOptionsMarker()
-	+ "nogui   Start DirectorySynchronize in console mode and start synchronization.\n\n"
+	+ "nogui   Start DirectorySynchronize in console mode and start synchronization.\n"
+	+ "  "
+	+ DirSync.getOptionsMarker()
+	+ "watch   Start synchronization in console mode, then keep watching the source\n           directories and synchronize their changes (can't be combined with\n           'preview' or 'quit').\n"
+	+ "  "
+	+ DirSync.getOptionsMarker()
+	+ "reconcile Read the destination directories to check their manifests for\n           changes made by other programs.\n\n"
 	+ "Usage examples:\n" + "  * Start in GUI mode:\n"
 	+ "      dirsync\n" + "  * Start synchronization in GUI mode and quit afterwards:\n"
 	+ "      dirsync " + DirSync.getOptionsMarker() + "sync " + DirSync.getOptionsMarker() + "quit <configfile>\n"
 	+ "  * Start synchronization in command line mode:\n"
-	+ "      dirsync " + DirSync.getOptionsMarker() + "nogui <configfile>\n";
+	+ "      dirsync " + DirSync.getOptionsMarker() + "nogui <configfile>\n"
+	+ "  * Synchronize and keep synchronizing changes in command line mode:\n"
+	+ "      dirsync " + DirSync.getOptionsMarker() + "watch <configfile>\n";
 
 	/** The style token for the sync style. */
 	public static final String STYLE_SYNC = "sync";
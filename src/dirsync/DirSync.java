@@ -25,6 +25,7 @@ package dirsync;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -34,6 +35,7 @@ import java.util.Properties;
 
 import dirsync.gui.Gui;
 import dirsync.sync.Sync;
+import dirsync.sync.SyncMonitor;
 import dirsync.tools.Log;
 
 /**
@@ -64,6 +66,10 @@ public class DirSync {
 
 	private static boolean option_quit;
 
+	private static boolean option_watch;
+
+	private static boolean option_reconcile;
+
 	private static String[] parseOptions(String[] args) {
 
 		option_help = false;
@@ -72,6 +78,8 @@ public class DirSync {
 		option_preview = false;
 		option_sync = false;
 		option_quit = false;
+		option_watch = false;
+		option_reconcile = false;
 
 		List options = new ArrayList(Arrays.asList(args));
 
@@ -97,6 +105,11 @@ public class DirSync {
 					option_sync = true;
 				} else if (option.equalsIgnoreCase("quit")) {
 					option_quit = true;
+				} else if (option.equalsIgnoreCase("watch")) {
+					option_watch = true;
+					option_noGui = true; // watch mode is console mode
+				} else if (option.equalsIgnoreCase("reconcile")) {
+					option_reconcile = true;
 				} else {
 					DirSync.displayError("Unknown option '" + option + "'.");
 					option_usage = true;
@@ -135,8 +148,24 @@ public class DirSync {
 			DirSync.displayUsage();
 		}
 
+		// 'watch' synchronizes
+		if (option_preview && option_watch) {
+			DirSync
+					.displayError("The argument 'watch' can't be combined with 'preview'.");
+			DirSync.displayUsage();
+		}
+
+		// 'watch' never finishes
+		if (option_quit && option_watch) {
+			DirSync
+					.displayError("The argument 'watch' can't be combined with 'quit'.");
+			DirSync.displayUsage();
+		}
+
 		log = new Log(""); // log is always needed
 		sync = new Sync(); // sync is always needed
+		sync.setReconcile(option_reconcile);
+		SyncMonitor.register();
 		
 		switch (args.length) {
 
@@ -155,18 +184,29 @@ public class DirSync {
 			if (option_noGui) {
 				try {
 					sync.load(args[0]);
-
-					if (option_preview) {
-						getSync().synchronize(Sync.PREVIEW); // start
-						// preview
-					} else {
-						// start synchronization
-						getSync().synchronize(Sync.SYNCHRONIZATION); 
-					}
-
 				} catch (Exception e) {
 					System.err.println("Error while loading configuration '"
 							+ args[0] + "'.");
+					break;
+				}
+
+				if (option_preview) {
+					getSync().synchronize(Sync.PREVIEW); // start
+					// preview
+				} else {
+					// start synchronization
+					getSync().synchronize(Sync.SYNCHRONIZATION); 
+				}
+
+				if (option_watch) {
+					// synchronize changes until the program is killed
+					try {
+						getSync().watch();
+					} catch (IOException e) {
+						System.err.println("Error while watching the source directories: "
+								+ e.getMessage());
+						System.exit(1);
+					}
 				}
 
 			} else { // gui
@@ -261,6 +301,9 @@ public class DirSync {
 	 * @param log The global log.
 	 */
 	public static void setLog(Log log) {
+		if (DirSync.log != null && DirSync.log != log) {
+			DirSync.log.close();
+		}
 		DirSync.log = log;
 	}
 
@@ -288,6 +331,36 @@ public class DirSync {
 		return properties;
 	}
 
+	/**
+	 * Get a property as integer.
+	 * @param key The key of the property.
+	 * @param defaultValue The value to return if the property is not set or isn't a number.
+	 * @return The value of the property.
+	 */
+	public static int getIntProperty(String key, int defaultValue) {
+		if (properties == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException nfe) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Get a property as boolean.
+	 * @param key The key of the property.
+	 * @param defaultValue The value to return if the property is not set.
+	 * @return The value of the property.
+	 */
+	public static boolean getBooleanProperty(String key, boolean defaultValue) {
+		if (properties == null) {
+			return defaultValue;
+		}
+		return properties.getProperty(key, String.valueOf(defaultValue)).trim().equalsIgnoreCase("true");
+	}
+
 	/**
 	 * Set the quit option.
 	 * @param option_quit If set to <code>true</code> the program will quit after the current operation.
@@ -304,6 +377,14 @@ public class DirSync {
 		return option_quit;
 	}
 
+	/**
+	 * Get the setting of the watch option.
+	 * @return <code>true</code> if the option is enabled, <code>false</code> otherwise.
+	 */
+	public static boolean isOption_watch() {
+		return option_watch;
+	}
+
 	/**
 	 * Get the character preceding a command line option on this platform.
 	 * @return The character preceding a command line option.
@@ -342,6 +423,125 @@ public class DirSync {
 		// make sure that parameter exists
 		properties.put("dirsync.config.path", properties.getProperty(
 				"dirsync.config.path", ""));
+
+		// if no number of parallel directories is given synchronize one by one
+		properties.put("dirsync.sync.paralleldirs", properties.getProperty(
+				"dirsync.sync.paralleldirs", "1"));
+
+		// if no traversal mode is given count the files before synchronizing
+		properties.put("dirsync.sync.singlepass", properties.getProperty(
+				"dirsync.sync.singlepass", "false"));
+
+		// if no mirror mode is given walk the destination again for deletions
+		properties.put("dirsync.sync.mirror", properties.getProperty(
+				"dirsync.sync.mirror", "false"));
+
+		// if not switched off reuse the listings of unchanged directories
+		// (needs reliable directory modification dates)
+		properties.put("dirsync.sync.dircache", properties.getProperty(
+				"dirsync.sync.dircache", "true"));
+
+		// if no number of scan threads is given read the tree with one thread
+		properties.put("dirsync.scan.threads", properties.getProperty(
+				"dirsync.scan.threads", "0"));
+		properties.put("dirsync.scan.lookahead", properties.getProperty(
+				"dirsync.scan.lookahead", "1000"));
+
+		// if no reconcile interval is given check the destination manifests
+		// weekly (in days; 0: every run, -1: only on demand)
+		properties.put("dirsync.manifest.reconcile", properties.getProperty(
+				"dirsync.manifest.reconcile", "7"));
+		properties.put("dirsync.manifest.reconcile.hash", properties.getProperty(
+				"dirsync.manifest.reconcile.hash", "false"));
+
+		// if no number of copy workers is given copy while scanning
+		properties.put("dirsync.copy.workers", properties.getProperty(
+				"dirsync.copy.workers", "0"));
+		properties.put("dirsync.copy.queuesize", properties.getProperty(
+				"dirsync.copy.queuesize", "1000"));
+
+		// log the details of every action
+		properties.put("dirsync.log.level", properties.getProperty(
+				"dirsync.log.level", "detail"));
+
+		// GUI: append the output every 200 ms, keep the last 5000 lines
+		properties.put("dirsync.gui.outputdelay", properties.getProperty(
+				"dirsync.gui.outputdelay", "200"));
+		properties.put("dirsync.gui.maxlines", properties.getProperty(
+				"dirsync.gui.maxlines", "5000"));
+
+		// register the MBean dirsync:type=Sync
+		properties.put("dirsync.jmx", properties.getProperty(
+				"dirsync.jmx", "true"));
+		// without GUI the MBean samples the throughput every second
+		properties.put("dirsync.jmx.sampleinterval", properties.getProperty(
+				"dirsync.jmx.sampleinterval", "1000"));
+
+		// GUI: update the progress every 250 ms, calculate the throughput
+		// over the last 5 seconds
+		properties.put("dirsync.gui.progressinterval", properties.getProperty(
+				"dirsync.gui.progressinterval", "250"));
+		properties.put("dirsync.progress.window", properties.getProperty(
+				"dirsync.progress.window", "5000"));
+
+		// buffer up to 4096 log lines, flush the log files every second or
+		// after 64 KB
+		properties.put("dirsync.log.buffersize", properties.getProperty(
+				"dirsync.log.buffersize", "4096"));
+		properties.put("dirsync.log.flushinterval", properties.getProperty(
+				"dirsync.log.flushinterval", "1000"));
+		properties.put("dirsync.log.flushsize", properties.getProperty(
+				"dirsync.log.flushsize", "65536"));
+
+		// write into the destination files, don't force them to disk
+		properties.put("dirsync.copy.atomic", properties.getProperty(
+				"dirsync.copy.atomic", "false"));
+		properties.put("dirsync.copy.fsync", properties.getProperty(
+				"dirsync.copy.fsync", "none"));
+
+		// files of 1 GB and more can be continued after an interruption;
+		// a checkpoint is written every 64 MB
+		properties.put("dirsync.copy.resumesize", properties.getProperty(
+				"dirsync.copy.resumesize", "1073741824"));
+		properties.put("dirsync.copy.checkpoint", properties.getProperty(
+				"dirsync.copy.checkpoint", "67108864"));
+
+		// if no copy engine is given choose it by file size, file system and
+		// dirsync.NIO
+		properties.put("dirsync.copy.engine", properties.getProperty(
+				"dirsync.copy.engine", "auto"));
+		properties.put("dirsync.copy.smallfile", properties.getProperty(
+				"dirsync.copy.smallfile", "0"));
+		properties.put("dirsync.copy.largefile", properties.getProperty(
+				"dirsync.copy.largefile", "1048576"));
+
+		// keep up to 16 copy buffers of 1 MB for reuse
+		properties.put("dirsync.buffer.size", properties.getProperty(
+				"dirsync.buffer.size", "1048576"));
+		properties.put("dirsync.buffer.count", properties.getProperty(
+				"dirsync.buffer.count", "16"));
+
+		// verify copied files with CRC32C checksums
+		properties.put("dirsync.verify.checksum", properties.getProperty(
+				"dirsync.verify.checksum", "CRC32C"));
+
+		// delta copy: compare blocks of 64 KB, copy files below 1 MB completely
+		properties.put("dirsync.delta.blocksize", properties.getProperty(
+				"dirsync.delta.blocksize", "65536"));
+		properties.put("dirsync.delta.minsize", properties.getProperty(
+				"dirsync.delta.minsize", "1048576"));
+
+		// watch mode: wait a second for further changes, at most ten seconds
+		properties.put("dirsync.watch.delay", properties.getProperty(
+				"dirsync.watch.delay", "1000"));
+		properties.put("dirsync.watch.maxdelay", properties.getProperty(
+				"dirsync.watch.maxdelay", "10000"));
+		// write the destination manifests after ten idle seconds, at least
+		// every five minutes
+		properties.put("dirsync.watch.savedelay", properties.getProperty(
+				"dirsync.watch.savedelay", "10000"));
+		properties.put("dirsync.watch.saveinterval", properties.getProperty(
+				"dirsync.watch.saveinterval", "300000"));
 	}
 
 	/**
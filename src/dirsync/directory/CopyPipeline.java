@@ -0,0 +1,172 @@
+/*
+ * CopyPipeline.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.directory;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import dirsync.DirSync;
+
+/**
+ * Copies the files of a directory with a pool of copy workers. The scanning
+ * thread puts the files to copy into a bounded queue (and blocks while the
+ * queue is full) and the workers take and copy them, so that scanning the
+ * source tree and copying the files overlap.
+ * <p>
+ * On pause the workers sleep; on stop they discard the queued files so that
+ * the scanning thread never blocks forever.
+ * 
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class CopyPipeline {
+
+	// marks the end of the queue for one worker
+	private static final Object[] END = new Object[0];
+
+	// the directory whose files are copied
+	private final Directory directory;
+
+	// the queued source entries, destination files and destination entries
+	private final BlockingQueue queue;
+
+	private final Thread[] workers;
+
+	// the first exception or error thrown by a worker
+	private volatile Throwable failure;
+
+	/**
+	 * Initializes a new copy pipeline.
+	 * 
+	 * @param directory
+	 *            The directory whose files are copied.
+	 * @param numberOfWorkers
+	 *            The number of copy workers.
+	 * @param queueSize
+	 *            The maximum number of queued files.
+	 */
+	CopyPipeline(Directory directory, int numberOfWorkers, int queueSize) {
+		this.directory = directory;
+		this.queue = new ArrayBlockingQueue(queueSize);
+		this.workers = new Thread[numberOfWorkers];
+
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "DirSync copy worker " + (i + 1) + " (" + directory.getName() + ")");
+			workers[i].setDaemon(true);
+		}
+	}
+
+	/**
+	 * Starts the copy workers.
+	 */
+	void start() {
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues a file to copy; blocks while the queue is full.
+	 * 
+	 * @param src
+	 *            The source file (with its attributes).
+	 * @param dst
+	 *            The destination file.
+	 * @param dstEntry
+	 *            The destination file as listed (see
+	 *            <code>Directory.copyFile()</code>).
+	 * @param dstListed
+	 *            <code>true</code> if the destination directory has been
+	 *            listed.
+	 * @throws Exception
+	 *             If a worker failed or the scanning thread was interrupted.
+	 */
+	void copy(FileEntry src, File dst, FileEntry dstEntry, boolean dstListed) throws Exception {
+		rethrowFailure();
+		queue.put(new Object[] { src, dst, dstEntry, Boolean.valueOf(dstListed) });
+	}
+
+	/**
+	 * Waits until all queued files are copied and the workers have ended.
+	 * 
+	 * @throws Exception
+	 *             If a worker failed.
+	 */
+	void finish() throws Exception {
+		for (int i = 0; i < workers.length; i++) {
+			queue.put(END);
+		}
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].join();
+		}
+		rethrowFailure();
+	}
+
+	/**
+	 * @return The number of files waiting in the queue.
+	 */
+	int getQueueSize() {
+		return queue.size();
+	}
+
+	private void work() {
+		while (true) {
+			Object[] files;
+			try {
+				files = (Object[]) queue.take();
+			} catch (InterruptedException ie) {
+				return;
+			}
+
+			if (files == END) {
+				return;
+			}
+
+			DirSync.getSync().sleepOnPause();
+			// drain the queue without copying after a stop or a failure
+			if (DirSync.getSync().isStopping() || failure != null) {
+				continue;
+			}
+
+			try {
+				directory.copyFile((FileEntry) files[0], (File) files[1], (FileEntry) files[2],
+						((Boolean) files[3]).booleanValue());
+			} catch (Throwable t) {
+				if (failure == null) {
+					failure = t;
+				}
+			}
+		}
+	}
+
+	private void rethrowFailure() throws Exception {
+		if (failure instanceof Exception) {
+			throw (Exception) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+}
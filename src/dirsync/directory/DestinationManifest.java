@@ -0,0 +1,532 @@
+/*
+ * DestinationManifest.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.directory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Checksum;
+
+import dirsync.DirSync;
+import dirsync.tools.FileTools;
+
+/**
+ * The manifest of a destination directory: every file and directory DirSync
+ * has written there with its size, modification date, and (if the copy was
+ * verified) the checksum of its content. While a manifest is used the
+ * destination isn't read at all; the copy and the delete decisions are made
+ * from the manifest, which is updated with every file copied, directory
+ * created, and file or directory deleted.
+ * <p>
+ * The manifest is only valid as long as no other program changes the
+ * destination. A reconcile pass reads the whole destination, reports the
+ * differences (the drift) and replaces the manifest with what has been read.
+ * It is done when the manifest is missing, every
+ * <code>dirsync.manifest.reconcile</code> days and on demand (option
+ * <code>reconcile</code>).
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class DestinationManifest {
+
+	// identifies the file format
+	private static final String MAGIC = "DirSync destination manifest 1";
+
+	/** A file changed by another program. */
+	static final String CHANGED = "Changed";
+
+	/** A file or directory deleted by another program. */
+	static final String MISSING = "Missing";
+
+	/** A file or directory created by another program. */
+	static final String UNKNOWN = "Unknown";
+
+	private final File file;
+
+	private final File dst;
+
+	// the absolute path of the destination directory
+	private final String root;
+
+	// the entries by directory: relative path of the directory -> Map
+	// (name -> Entry)
+	private Map dirs = new HashMap();
+
+	// the time of the last reconcile pass
+	private long reconciled;
+
+	/**
+	 * The recorded state of a file or directory.
+	 */
+	static class Entry {
+
+		final boolean directory;
+
+		final long length;
+
+		final long lastModified;
+
+		final boolean hashed;
+
+		final long hash;
+
+		Entry(boolean directory, long length, long lastModified,
+				boolean hashed, long hash) {
+			this.directory = directory;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hashed = hashed;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Initializes a new DestinationManifest.
+	 *
+	 * @param file
+	 *            The manifest file.
+	 * @param dst
+	 *            The destination directory.
+	 */
+	DestinationManifest(File file, File dst) {
+		this.file = file;
+		this.dst = dst;
+		this.root = dst.getAbsolutePath();
+	}
+
+	/**
+	 * Reads the manifest file.
+	 *
+	 * @return <code>true</code> if the manifest has been read,
+	 *         <code>false</code> if it is missing or stale.
+	 */
+	synchronized boolean load() {
+		dirs = new HashMap();
+		reconciled = 0;
+
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+
+			if (!in.readUTF().equals(MAGIC)
+					|| !in.readUTF().equals(root)) {
+				return false;
+			}
+			long time = in.readLong();
+			// checksums of another algorithm can't be compared
+			boolean sameAlgorithm = in.readUTF().equals(algorithm());
+
+			Map entries = new HashMap();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String dir = in.readUTF();
+				String name = in.readUTF();
+				boolean directory = in.readBoolean();
+				long length = in.readLong();
+				long lastModified = in.readLong();
+				boolean hashed = in.readBoolean() && sameAlgorithm;
+				long hash = in.readLong();
+				children(entries, dir).put(name, new Entry(directory, length,
+						lastModified, hashed, hash));
+			}
+
+			// the number of entries is repeated at the end
+			if (in.readInt() != n) {
+				return false;
+			}
+
+			dirs = entries;
+			reconciled = time;
+			return true;
+		} catch (EOFException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of files and directories in the manifest.
+	 *
+	 * @return The number of entries.
+	 */
+	synchronized int size() {
+		int n = 0;
+		for (Iterator iter = dirs.values().iterator(); iter.hasNext();) {
+			n += ((Map) iter.next()).size();
+		}
+		return n;
+	}
+
+	/**
+	 * Gets the time of the last reconcile pass.
+	 *
+	 * @return The time in milliseconds.
+	 */
+	long getReconciled() {
+		return reconciled;
+	}
+
+	/**
+	 * Lists the entries of a destination directory recorded in the manifest.
+	 *
+	 * @param dir
+	 *            The destination directory.
+	 * @return FileEntry[] The entries sorted by name (see
+	 *         <code>FileEntry.NAME_ORDER</code>).
+	 */
+	synchronized FileEntry[] list(File dir) {
+		Map children = (Map) dirs.get(relative(dir));
+		if (children == null) {
+			return new FileEntry[0];
+		}
+
+		FileEntry[] entries = new FileEntry[children.size()];
+		int i = 0;
+		for (Iterator iter = children.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry e = (Map.Entry) iter.next();
+			Entry entry = (Entry) e.getValue();
+			entries[i++] = new FileEntry(new File(dir, (String) e.getKey()),
+					entry.directory, entry.length, entry.lastModified);
+		}
+		Arrays.sort(entries, FileEntry.NAME_ORDER);
+		return entries;
+	}
+
+	/**
+	 * Records a file written to the destination (and its directories).
+	 *
+	 * @param written
+	 *            The destination file.
+	 * @param attributes
+	 *            The attributes of the destination file.
+	 * @param checksum
+	 *            The checksum of the content or <code>null</code>.
+	 */
+	synchronized void record(File written, BasicFileAttributes attributes,
+			Checksum checksum) {
+		put(written, new Entry(false, attributes.size(), attributes
+				.lastModifiedTime().toMillis(), checksum != null,
+				(checksum != null) ? checksum.getValue() : 0));
+	}
+
+	/**
+	 * Records a directory created in the destination (and its parents).
+	 *
+	 * @param dir
+	 *            The destination directory.
+	 */
+	synchronized void recordDirectory(File dir) {
+		String path = relative(dir);
+		int k = path.lastIndexOf(File.separatorChar);
+		if (k < 0) {
+			return; // the destination directory itself
+		}
+		Entry entry = (Entry) children(dirs, path.substring(0, k)).get(path.substring(k + 1));
+		if (entry == null || !entry.directory) {
+			put(dir, new Entry(true, 0, 0, false, 0));
+		}
+	}
+
+	/**
+	 * Removes a deleted file or directory (with its contents).
+	 *
+	 * @param deleted
+	 *            The deleted file or directory.
+	 */
+	synchronized void remove(File deleted) {
+		String path = relative(deleted);
+		int k = path.lastIndexOf(File.separatorChar);
+		if (k < 0) {
+			return;
+		}
+
+		Map children = (Map) dirs.get(path.substring(0, k));
+		if (children != null) {
+			children.remove(path.substring(k + 1));
+		}
+		for (Iterator iter = dirs.keySet().iterator(); iter.hasNext();) {
+			String dir = (String) iter.next();
+			if (dir.equals(path) || dir.startsWith(path + File.separatorChar)) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Reads the whole destination directory, reports the differences to the
+	 * manifest, and replaces the manifest with what has been read. If the
+	 * synchronization is stopped meanwhile, the manifest is left as it was.
+	 * Work files of DirSync (see {@link FileTools#getWorkFileTarget(File)})
+	 * aren't part of the manifest.
+	 *
+	 * @param checkHashes
+	 *            <code>true</code> to read the files with a recorded checksum
+	 *            and compare their checksums, too.
+	 * @param workFiles
+	 *            The list to add the work files found to.
+	 * @return The differences: String[] {kind, path}, kind is one of
+	 *         <code>CHANGED</code>, <code>MISSING</code>, or
+	 *         <code>UNKNOWN</code>; <code>null</code> if stopped.
+	 */
+	List reconcile(final boolean checkHashes, final List workFiles) {
+		final Map read = new HashMap();
+		final List drift = new ArrayList();
+		final Map old;
+		synchronized (this) {
+			old = dirs;
+		}
+
+		// links are followed (and loops detected) like the destination is
+		// listed while synchronizing
+		try {
+			Files.walkFileTree(dst.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+					Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+						public FileVisitResult preVisitDirectory(Path path,
+								BasicFileAttributes attributes) {
+							DirSync.getSync().sleepOnPause();
+							if (DirSync.getSync().isStopping()) {
+								return FileVisitResult.TERMINATE;
+							}
+							visit(path.toFile(), true, attributes);
+							return FileVisitResult.CONTINUE;
+						}
+
+						public FileVisitResult visitFile(Path path,
+								BasicFileAttributes attributes) {
+							if (attributes.isRegularFile()) {
+								File found = path.toFile();
+								if (FileTools.getWorkFileTarget(found) != null) {
+									workFiles.add(found);
+								} else {
+									visit(found, false, attributes);
+								}
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						public FileVisitResult visitFileFailed(Path path,
+								IOException e) {
+							// unreadable entries are skipped
+							return FileVisitResult.CONTINUE;
+						}
+
+						private void visit(File found, boolean directory,
+								BasicFileAttributes attributes) {
+							String path = relative(found);
+							int k = path.lastIndexOf(File.separatorChar);
+							if (k < 0) {
+								return;
+							}
+							String dir = path.substring(0, k);
+							String name = path.substring(k + 1);
+							long length = directory ? 0 : attributes.size();
+							long lastModified = directory ? 0 : attributes
+									.lastModifiedTime().toMillis();
+
+							Map children = (Map) old.get(dir);
+							Entry recorded = (children != null) ? (Entry) children.get(name) : null;
+							boolean hashed = false;
+							long hash = 0;
+
+							if (recorded == null || recorded.directory != directory) {
+								drift.add(new String[] { UNKNOWN, found.getAbsolutePath() });
+							} else if (recorded.length != length
+									|| recorded.lastModified != lastModified) {
+								drift.add(new String[] { CHANGED, found.getAbsolutePath() });
+							} else if (recorded.hashed) {
+								// the checksum is kept unless it doesn't match
+								hashed = true;
+								hash = recorded.hash;
+								if (checkHashes) {
+									try {
+										hashed = FileTools.checksum(found, FileTools.newChecksum()) == hash;
+									} catch (Exception e) {
+										hashed = false;
+									}
+									if (!hashed) {
+										drift.add(new String[] { CHANGED, found.getAbsolutePath() });
+									}
+								}
+							}
+							children(read, dir).put(name, new Entry(directory, length,
+									lastModified, hashed, hash));
+						}
+					});
+		} catch (IOException e) {
+			// a destination that doesn't exist (yet) is empty
+		}
+
+		if (DirSync.getSync().isStopping()) {
+			return null;
+		}
+
+		// the recorded entries not found
+		for (Iterator iter = old.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry e = (Map.Entry) iter.next();
+			String dir = (String) e.getKey();
+			Map found = (Map) read.get(dir);
+			for (Iterator names = ((Map) e.getValue()).keySet().iterator(); names.hasNext();) {
+				String name = (String) names.next();
+				if (found == null || !found.containsKey(name)) {
+					drift.add(new String[] { MISSING, root + dir + File.separatorChar + name });
+				}
+			}
+		}
+
+		synchronized (this) {
+			dirs = read;
+			reconciled = System.currentTimeMillis();
+		}
+		return drift;
+	}
+
+	/**
+	 * Writes the manifest file. The manifest is written to a temporary file
+	 * first, which then replaces the manifest file.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void save() throws IOException {
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		int n = size();
+
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(fos));
+
+			out.writeUTF(MAGIC);
+			out.writeUTF(root);
+			out.writeLong(reconciled);
+			out.writeUTF(algorithm());
+			out.writeInt(n);
+			for (Iterator iter = dirs.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry d = (Map.Entry) iter.next();
+				for (Iterator names = ((Map) d.getValue()).entrySet().iterator(); names.hasNext();) {
+					Map.Entry e = (Map.Entry) names.next();
+					Entry entry = (Entry) e.getValue();
+
+					out.writeUTF((String) d.getKey());
+					out.writeUTF((String) e.getKey());
+					out.writeBoolean(entry.directory);
+					out.writeLong(entry.length);
+					out.writeLong(entry.lastModified);
+					out.writeBoolean(entry.hashed);
+					out.writeLong(entry.hash);
+				}
+			}
+			out.writeInt(n);
+			out.flush();
+
+			// the data must be on disk before the old manifest is replaced
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the manifest file, so that the next run reads the destination.
+	 */
+	void delete() {
+		file.delete();
+	}
+
+	/**
+	 * Puts an entry and records the directories above it.
+	 */
+	private void put(File entryFile, Entry entry) {
+		String path = relative(entryFile);
+		int k = path.lastIndexOf(File.separatorChar);
+		if (k < 0) {
+			return;
+		}
+		children(dirs, path.substring(0, k)).put(path.substring(k + 1), entry);
+		if (k > 0) {
+			recordDirectory(entryFile.getAbsoluteFile().getParentFile());
+		}
+	}
+
+	/**
+	 * Gets the path of a destination file relative to the destination
+	 * directory, e.g. "/dir/file" ("" for the destination directory).
+	 */
+	private String relative(File entryFile) {
+		String path = entryFile.getAbsolutePath();
+		return path.startsWith(root) ? path.substring(root.length()) : path;
+	}
+
+	private static Map children(Map entries, String dir) {
+		Map children = (Map) entries.get(dir);
+		if (children == null) {
+			children = new HashMap();
+			entries.put(dir, children);
+		}
+		return children;
+	}
+
+	private static String algorithm() {
+		return FileTools.newChecksum().getClass().getName();
+	}
+}
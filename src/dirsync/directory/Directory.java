@@ -22,6 +22,15 @@
 package dirsync.directory;
 
 import java.io.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
 
 import dirsync.Const;
 import dirsync.DirSync;
@@ -30,7 +39,9 @@ import dirsync.exceptions.IncompleteConfigurationException;
 import dirsync.exceptions.WarningException;
 import dirsync.sync.Sync;
 import dirsync.tools.FileTools;
+import dirsync.tools.Fsync;
 import dirsync.tools.Log;
+import dirsync.tools.Progress;
 
 /**
  * Represents a directory (source and destination) to be synchronized. Contains
@@ -41,6 +52,52 @@ import dirsync.tools.Log;
  * @author E. Gerber , F. Gerbig (fgerbig@users.sourceforge.net)
  */
 public class Directory extends DirectoryVarGetSet {
+
+	// the copy pipeline of the running synchronization (null if files are
+	// copied by the scanning thread)
+	private volatile CopyPipeline pipeline;
+
+	// whether the files are counted while synchronizing (no counting pass)
+	private boolean singlePass;
+
+	// the number of files found while synchronizing (single pass mode)
+	private int countFound;
+
+	// the number of files found in the last complete run (-1 if unknown)
+	private int countLastRun = -1;
+
+	// the snapshot index of the running synchronization (null if none)
+	private SnapshotIndex index;
+
+	// the directory listings of the last run (null if none)
+	private DirectoryCache dirCache;
+
+	// the manifest of the destination directory (null if none)
+	private DestinationManifest manifest;
+
+	// the manifest in memory matches the destination, so the changes of
+	// watch mode continue with it instead of reading it again
+	private boolean manifestKept;
+
+	// the manifest has been changed by watch mode and not yet written
+	private boolean manifestPending;
+
+	// reads the source tree in parallel (null if read by a single thread)
+	private TreeScanner scanner;
+
+	// delta copy: block size and minimum file size (see dirsync.properties)
+	private int deltaBlockSize;
+
+	private long deltaMinSize;
+
+	// resumable copy: minimum file size (0 = never, see dirsync.properties)
+	private long resumeMinSize;
+
+	// delta copy: bytes written and size of the updated files
+	private final AtomicLong deltaWritten = new AtomicLong();
+
+	private final AtomicLong deltaLength = new AtomicLong();
+
 	/**
 	 * Initializes a new Directory.
 	 */
@@ -79,7 +136,7 @@ public class Directory extends DirectoryVarGetSet {
 	 *            The destination path.
 	 * @return File The file with the destination path.
 	 */
-	private static File replacePath(File srcFile, File srcPath, File dstPath) {
+	public static File replacePath(File srcFile, File srcPath, File dstPath) {
 
 		// get actual path
 		String path = srcFile.getAbsolutePath();
@@ -108,7 +165,7 @@ public class Directory extends DirectoryVarGetSet {
 	 *            The destination path.
 	 * @return File[] The files with the destination path.
 	 */
-	private static File[] replacePath(File[] srcFiles, File srcPath,
+	public static File[] replacePath(File[] srcFiles, File srcPath,
 			File dstPath) {
 
 		File[] dstFiles = new File[srcFiles.length];
@@ -121,79 +178,265 @@ public class Directory extends DirectoryVarGetSet {
 		return dstFiles;
 	}
 
-	private void copy(File src, File dst) throws IOException {
-		// Copy All
-		if (copyAll) {
-			countCopyAll = copy(src, dst, countCopyAll, "Copy All");
-		} else { // if copymode is not "Copy All" check other copymodes
+	/**
+	 * Copies the given file (depending on the copy mode), counts it and
+	 * updates the progress. Called by the scanning thread or, if copy workers
+	 * are configured, by the workers of the copy pipeline.
+	 * 
+	 * @param src
+	 *            The source file.
+	 * @param dst
+	 *            The destination file.
+	 * @param dstEntry
+	 *            The destination file as listed or <code>null</code> if it
+	 *            doesn't exist.
+	 * @param dstListed
+	 *            <code>true</code> if the destination directory has been
+	 *            listed (and <code>dstEntry</code> is valid).
+	 * @throws IOException
+	 */
+	void copyFile(FileEntry src, File dst, FileEntry dstEntry, boolean dstListed) throws IOException {
+		copy(src, dst, dstEntry, dstListed);
+		count.incrementAndGet();
+		Progress.getProgress().fileDone();
+		if (DirSync.isGuiMode()) {
+			DirSync.getGui().setProgress(count.get(), src.getFile().getAbsolutePath());
+		}
+	}
 
-			// Copy New
-			if (copyNew && !dst.exists()) {
-				countCopyNew = copy(src, dst, countCopyNew, "Copy New");
-			} else {
+	/**
+	 * Returns the number of files waiting in the queue of the copy pipeline.
+	 * 
+	 * @return The number of queued files (<code>0</code> if no copy workers
+	 *         are configured or the directory isn't synchronized).
+	 */
+	public int getCopyQueueSize() {
+		CopyPipeline p = pipeline;
+		return (p != null) ? p.getQueueSize() : 0;
+	}
 
-				// Copy Modified
-				if (copyModified && FileTools.cmpFileDates(src, dst)) {
-					countCopyModified = copy(src, dst, countCopyModified,
-							"Copy Modified");
-				} else {
+	private void copy(FileEntry src, File dst, FileEntry dstEntry, boolean dstListed) throws IOException {
+		String path = null;
+		SnapshotIndex.Entry known = null;
+		boolean dstExists;
+		long dstLength;
+		long dstLastModified;
+
+		// the state of the destination file is taken from the snapshot index
+		// if the source file is unchanged since the last run
+		if (index != null) {
+			path = src.getFile().getPath().substring(srcFile.getPath().length());
+			known = index.lookup(path, src);
+		}
+		if (known != null) {
+			dstExists = known.dstExists;
+			dstLength = known.dstLength;
+			dstLastModified = known.dstLastModified;
+		} else if (dstListed) {
+			// decided in memory from the listing of the destination directory
+			dstExists = (dstEntry != null) && dstEntry.exists();
+			dstLength = dstExists ? dstEntry.length() : 0;
+			dstLastModified = dstExists ? dstEntry.lastModified() : 0;
+		} else {
+			BasicFileAttributes attributes = FileTools.readAttributes(dst);
+			dstExists = (attributes != null);
+			dstLength = dstExists ? attributes.size() : 0;
+			dstLastModified = dstExists ? attributes.lastModifiedTime().toMillis() : 0;
+		}
 
-					// Copy Larger
-					if (copyLarger && FileTools.cmpFileSizes(src, dst)) {
-						countCopyLarger = copy(src, dst, countCopyLarger,
-								"Copy Larger");
-					} else {
-
-						// Copy LargerModified
-						// (only if not copyLarger or copyModified are selected;
-						// in this case the files have alread been copied)
-						if (copyLargerModified && !(copyLarger || copyModified)
-								&& FileTools.cmpFileDates(src, dst)
-								&& FileTools.cmpFileSizes(src, dst)) {
-							countCopyLargerModified = copy(src, dst,
-									countCopyLargerModified,
-									"Copy Larger&Modified");
-						}
-					}
+		boolean newer = dstExists && FileTools.cmpFileDates(src.lastModified(), dstLastModified);
+		boolean larger = dstExists && src.length() > dstLength;
+		String copymode = null;
+		AtomicInteger countCopied = null;
+
+		if (copyAll) { // Copy All
+			copymode = "Copy All";
+			countCopied = countCopyAll;
+		} else if (copyNew && !dstExists) { // Copy New
+			copymode = "Copy New";
+			countCopied = countCopyNew;
+		} else if (copyModified && newer) { // Copy Modified
+			copymode = "Copy Modified";
+			countCopied = countCopyModified;
+		} else if (copyLarger && larger) { // Copy Larger
+			copymode = "Copy Larger";
+			countCopied = countCopyLarger;
+		} else if (copyLargerModified && !(copyLarger || copyModified)
+				&& newer && larger) {
+			// Copy LargerModified
+			// (only if not copyLarger or copyModified are selected;
+			// in this case the files have alread been copied)
+			copymode = "Copy Larger&Modified";
+			countCopied = countCopyLargerModified;
+		}
+
+		if (copymode == null) {
+			if (index != null) {
+				index.record(path, src, src.lastModified(), dstExists, dstLength, dstLastModified);
+			}
+			if (log.isLogged(Log.DEBUG)) {
+				log.print("    (Unchanged" + (known != null ? ", snapshot index" : "")
+						+ ") '" + src.getFile().getAbsolutePath() + "'", Const.STYLE_INFO);
+			}
+		} else if (copy(src, dst, countCopied, copymode) && index != null) {
+			BasicFileAttributes attributes = FileTools.readAttributes(dst);
+			if (attributes != null) {
+				long dstModified = attributes.lastModifiedTime().toMillis();
+				index.record(path, src, DirSync.getSync().isWriteTimestampBack() ? dstModified
+						: src.lastModified(), true, attributes.size(), dstModified);
+			}
+		}
+	}
+
+	/**
+	 * Logs an action on a file: a single line at level <code>ACTION</code>,
+	 * the action followed by the paths of the files at level
+	 * <code>DETAIL</code>. Errors are logged with their paths at any level.
+	 * Nothing is built if the action isn't logged.
+	 * 
+	 * @param action
+	 *            The action (without "Preview of").
+	 * @param result
+	 *            The text following the action or <code>null</code>.
+	 * @param style
+	 *            The style of the action.
+	 * @param first
+	 *            The (source) file.
+	 * @param second
+	 *            The destination file or <code>null</code>.
+	 * @param detail
+	 *            A line with details or <code>null</code>.
+	 */
+	private void logAction(String action, String result, String style,
+			File first, File second, String detail) {
+		boolean failed = (style == Const.STYLE_ERROR);
+
+		if (!failed && !log.isLogged(Log.ACTION)) {
+			return;
+		}
+
+		String line = "    ("
+				+ (DirSync.getSync().isPreview() ? "Preview of " : "")
+				+ action + ")" + (result != null ? result : "");
+
+		// keep the lines of one file together (copy workers)
+		synchronized (log) {
+			if (failed || log.isLogged(Log.DETAIL)) {
+				log.print(line, style);
+				log.print("       '" + first.getAbsolutePath() + "'");
+				if (second != null) {
+					log.print("       '" + second.getAbsolutePath() + "'");
+				}
+				if (detail != null) {
+					log.print("       " + detail);
 				}
+				log.print("");
+			} else {
+				log.print(line + " '" + first.getAbsolutePath() + "'", style);
+			}
+		}
+	}
+
+	/**
+	 * Gets a property holding a file size in bytes. An invalid value (not a
+	 * number or negative) is reported and replaced by the default value.
+	 * 
+	 * @param key
+	 *            The key of the property.
+	 * @param defaultValue
+	 *            The value to use if the property is not set or invalid.
+	 * @return The size in bytes.
+	 */
+	private long getSizeProperty(String key, long defaultValue) {
+		String value = DirSync.getProperties().getProperty(key, String.valueOf(defaultValue)).trim();
+
+		try {
+			long size = Long.parseLong(value);
+			if (size >= 0) {
+				return size;
 			}
+		} catch (NumberFormatException nfe) {
+		}
+		print("  WARNING: Invalid value '" + value + "' of the property '" + key
+				+ "'; using " + defaultValue + ".", Const.STYLE_WARNING);
+		return defaultValue;
+	}
+
+	/**
+	 * Raises the error state of this directory to the given level; a lower
+	 * level never replaces a higher one (copy workers report concurrently).
+	 * 
+	 * @param level
+	 *            The error level (see <code>Sync</code>).
+	 */
+	private synchronized void raiseError(int level) {
+		if (level > error) {
+			error = level;
 		}
 	}
 
-	private int copy(File src, File dst, int countCopied, String copymode) throws IOException {
+	/**
+	 * Forces the files written into the given destination directory to disk
+	 * (see {@link Fsync}).
+	 * 
+	 * @param dir
+	 *            The destination directory or <code>null</code> for all
+	 *            directories.
+	 */
+	private void fsyncFinished(File dir) {
+		try {
+			Fsync.finished(dir);
+		} catch (IOException e) {
+			raiseError(Sync.ERROR_THIS_DIRECTORY);
+			print("  ERROR: Written files could not be forced to disk ("
+					+ e.getMessage() + ").", Const.STYLE_ERROR);
+		}
+	}
+
+	/**
+	 * Copies a file with the given copy mode.
+	 * 
+	 * @return <code>true</code> if the file has been copied (and verified),
+	 *         <code>false</code> in preview mode or if an error occurred.
+	 */
+	private boolean copy(FileEntry srcEntry, File dst, AtomicInteger countCopied, String copymode) throws IOException {
+		File src = srcEntry.getFile();
 		boolean verifyOk = true; 
+		long written = -1; // bytes written by a delta copy
+		long resumed = 0; // bytes copied by an earlier, interrupted copy
+		// the checksum of the copied bytes (if verify is enabled)
+		Checksum checksum = (verify && srcEntry.isFile()) ? FileTools.newChecksum() : null;
 
 		try {
 			if (DirSync.getSync().isPreview()) {
-				copymode = "Preview of " + copymode;
-				log.print("    (" + copymode + ")", Const.STYLE_ACTION);
-				countCopied++;
+				countCopied.incrementAndGet();
+				Progress.getProgress().fileCopied();
 			} else {
-				FileTools.copy(src, dst);
-				countCopied++;
+				if (deltaCopy && srcEntry.length() >= deltaMinSize && dst.isFile()) {
+					// update only the blocks that differ
+					written = FileTools.copyDelta(src, dst, deltaBlockSize, checksum);
+					deltaWritten.addAndGet(written);
+					deltaLength.addAndGet(srcEntry.length());
+				} else if (resumeMinSize > 0 && srcEntry.length() >= resumeMinSize) {
+					// continue an interrupted copy
+					resumed = FileTools.copyResumable(src, dst, checksum);
+				} else {
+					FileTools.copy(src, dst, checksum);
+				}
+				countCopied.incrementAndGet();
+				Progress.getProgress().fileCopied();
 				// if file was not copied an exception is thrown by
 				// FileTools.copy
 				// so that the countCopied++ is not reached.
 
-				if (verify && src.isFile()) { // verify is done by calculating and checking checksums
+				if (checksum != null) { // verify is done by calculating and checking checksums
 					
 					// set current progress bar to "Verify"
-					DirSync.getGui().setCurrentProgressMaximum(0);
-					DirSync.getGui().setCurrentProgress(0);
-					DirSync.getGui().setCurrentProgressText("Verify " + src.getName());
+					Progress.getProgress().fileStarted("Verify", src, 0);
 				
-					// calculate and check checksums
-					verifyOk = FileTools.checksumIdentical(src, dst); 
-				}
-
-				if (!verify || verifyOk) { // if no verify is necessary or
-					// verify is ok print only copymode
-					log.print("    (" + copymode + ")", Const.STYLE_ACTION);
-				} else { // if verify is not ok print copymode followed by
-					// error
-					DirSync.getSync().setError(Sync.ERROR_THIS_DIRECTORY);
-					log.print("    (" + copymode + ") ERROR: Verify error.",
-							Const.STYLE_ERROR);
+					// the checksum of the source file has been calculated
+					// while copying; only the destination file is read again
+					verifyOk = FileTools.checksum(dst, FileTools.newChecksum()) == checksum.getValue(); 
 				}
 
 				// copy destination file modification date back to the
@@ -204,31 +447,56 @@ public class Directory extends DirectoryVarGetSet {
 				if (DirSync.getSync().isWriteTimestampBack()) {
 					src.setLastModified(dst.lastModified());
 				}
+
+				if (manifest != null) {
+					BasicFileAttributes attributes = FileTools.readAttributes(dst);
+					if (attributes != null) {
+						manifest.record(dst, attributes, verifyOk ? checksum : null);
+					}
+				}
 			}
-			// print information about copied file
-			log.print("       '" + src.getAbsolutePath() + "'");
-			log.print("       '" + dst.getAbsolutePath() + "'");
-			log.print("");
 
+			// details are only built if they are logged
+			String detail = null;
+			if (written >= 0 && log.isLogged(Log.DETAIL)) {
+				detail = "Delta copy: " + written + " of " + srcEntry.length()
+						+ " bytes written.";
+			} else if (resumed > 0 && log.isLogged(Log.DETAIL)) {
+				detail = "Resumed copy at " + resumed + " of "
+						+ srcEntry.length() + " bytes.";
+			}
+
+			if (!verify || verifyOk) { // if no verify is necessary or
+				// verify is ok print only copymode
+				logAction(copymode, null, Const.STYLE_ACTION, src, dst, detail);
+			} else { // if verify is not ok print copymode followed by
+				// error
+				raiseError(Sync.ERROR_THIS_DIRECTORY);
+				logAction(copymode, " ERROR: Verify error.", Const.STYLE_ERROR,
+						src, dst, detail);
+			}
+
+			return !DirSync.getSync().isPreview() && (!verify || verifyOk);
 		} catch (WarningException we) {
-			if (DirSync.getSync().getError() == Sync.NOERROR) {
-				DirSync.getSync().setError(Sync.WARNING);
+			synchronized (log) {
+				raiseError(Sync.WARNING);
+				print("    (" + (DirSync.getSync().isPreview() ? "Preview of " : "")
+						+ copymode + ") Warning: " + we.getMessage(), Const.STYLE_WARNING);
+				print("       '" + src.getAbsolutePath() + "'");
+				print("       '" + dst.getAbsolutePath() + "'");
+				print("");
 			}
-			print("    (" + copymode + ") Warning: "
-					+ we.getMessage(), Const.STYLE_WARNING);
-			print("       '" + src.getAbsolutePath() + "'");
-			print("       '" + dst.getAbsolutePath() + "'");
-			print("");
 		} catch (ErrorException ee) {
-			DirSync.getSync().setError(Sync.ERROR_THIS_DIRECTORY);
-			print("    (" + copymode + ") ERROR: "
-					+ ee.getMessage(), Const.STYLE_ERROR);
-			print("       '" + src.getAbsolutePath() + "'");
-			print("       '" + dst.getAbsolutePath() + "'");
-			print("");
+			synchronized (log) {
+				raiseError(Sync.ERROR_THIS_DIRECTORY);
+				print("    (" + (DirSync.getSync().isPreview() ? "Preview of " : "")
+						+ copymode + ") ERROR: " + ee.getMessage(), Const.STYLE_ERROR);
+				print("       '" + src.getAbsolutePath() + "'");
+				print("       '" + dst.getAbsolutePath() + "'");
+				print("");
+			}
 		}
-		return countCopied;
-
+		return false;
 	}
 
 	/**
@@ -247,7 +515,44 @@ public class Directory extends DirectoryVarGetSet {
 	 * @throws Exception
 	 */
 	public void synchronize() throws Exception {
+		try {
+			synchronize(null);
+		} finally {
+			log.flush();
+		}
+	}
 
+	/**
+	 * Synchronises only the given source directories (watch mode): the files
+	 * of a changed directory are copied and the files and directories deleted
+	 * from it are deleted in the destination directory. Directories marked as
+	 * recursive (e.g. newly created directories) are synchronised with all
+	 * their subdirectories.
+	 * 
+	 * @param changedDirs
+	 *            The changed source directories (<code>File</code>) mapped
+	 *            to <code>Boolean.TRUE</code> if they are synchronised
+	 *            recursively; <code>null</code> to synchronise the whole
+	 *            directory.
+	 * @throws Exception
+	 */
+	public void synchronizeChanges(Map changedDirs) throws Exception {
+		try {
+			synchronize(changedDirs);
+		} finally {
+			log.flush();
+		}
+	}
+
+	private void synchronize(Map changedDirs) throws Exception {
+
+		// reset error state and progress
+		error = Sync.NOERROR;
+		count.set(0);
+		countTotal = 0;
+
+		// the log of the last synchronization isn't needed anymore
+		log.close();
 		try {
 			log = new Log(logfile);
 		} catch (WarningException we) {
@@ -256,6 +561,7 @@ public class Directory extends DirectoryVarGetSet {
 			log.print("");
 		}
 		
+		log.setLevel(Log.parseLevel(logLevel, Log.getDefaultLevel()));
 		log.print("* Started "
 				+ (DirSync.getSync().isPreview() ? "preview of " : "")
 				+ "synchronization of directory '" + name + "' *",
@@ -293,45 +599,199 @@ public class Directory extends DirectoryVarGetSet {
 			throw new IncompleteConfigurationException();
 		}
 
-		// initialize progress bar in indeterminate mode
-		if (DirSync.isGuiMode()) {
-			DirSync.getGui().setDirProgressText("Counting");
-			DirSync.getGui().setDirProgressIndeterminate(true);
+		// read the snapshot index of the last run (if any); synchronising
+		// changes doesn't see all files and leaves the index alone
+		index = null;
+		dirCache = null;
+		if (!indexfile.equals("") && changedDirs == null) {
+			index = new SnapshotIndex(new File(indexfile), srcFile, dstFile);
+			if (index.load()) {
+				print("  Snapshot index '" + indexfile + "' read: "
+						+ index.size() + " files.", Const.STYLE_INFO);
+			} else {
+				print("  Snapshot index '" + indexfile
+						+ "' missing or stale: checking every file.",
+						Const.STYLE_INFO);
+			}
+
+			// the listings of the source directories are kept next to the
+			// index, unless directory modification dates can't be trusted
+			DirectoryCache cache = new DirectoryCache(new File(indexfile + ".dirs"), srcFile);
+			if (!DirectoryCache.isEnabled()) {
+				cache.delete();
+			} else {
+				dirCache = cache;
+				if (dirCache.load()) {
+					print("  Directory cache '" + indexfile + ".dirs' read: "
+							+ dirCache.size() + " directories.", Const.STYLE_INFO);
+				}
+			}
+			print("");
+		}
+
+		// read the destination manifest (if any); the changes of watch mode
+		// continue with the manifest kept in memory
+		if (manifestfile.equals("")) {
+			manifest = null;
+		} else if (changedDirs != null && manifestKept && !DirSync.getSync().isPreview()) {
+			if (!manifestPending) {
+				manifest.delete(); // outdated by the changes until written
+			}
+		} else {
+			manifest = null;
+			manifestKept = false;
+			manifestPending = false;
+			openManifest(changedDirs == null);
 		}
-		
-		// initialize directory lister
-		DirectoryLister dl = new DirectoryLister(srcFile, log, DirSync.getSync()
-				.isSkipLinks());
-		// count files
-		count = dl.countFiles(withSubfolders);
-		print("  Total number of files found in '"
-				+ srcFile.getAbsolutePath() + "'"
-				+ (withSubfolders ? " and it's subdirectories" : "") + ": "
-				+ count, Const.STYLE_INFO);
-		print("");
+
+		// read the source tree with several threads (if configured)
+		int scanThreads = DirSync.getIntProperty("dirsync.scan.threads", 0);
+		scanner = (scanThreads > 1) ? new TreeScanner(this, scanThreads, DirSync
+				.getIntProperty("dirsync.scan.lookahead", 1000)) : null;
+
+		// the files of changed directories are never counted in advance
+		singlePass = (changedDirs != null)
+				|| DirSync.getBooleanProperty("dirsync.sync.singlepass", false);
+		countFound = 0;
+
+		if (changedDirs != null) {
+			countTotal = 0;
+			print("  Synchronizing the changes in " + changedDirs.size()
+					+ " director" + (changedDirs.size() == 1 ? "y" : "ies")
+					+ ".", Const.STYLE_INFO);
+			print("");
+		} else if (singlePass) {
+			// don't count; the total number of files is estimated from the
+			// last run and discovered while synchronizing
+			countTotal = Math.max(0, countLastRun);
+			print("  Counting skipped; the number of files is discovered while synchronizing"
+					+ (countLastRun >= 0 ? " (last run: " + countLastRun + ")" : "") + ".",
+					Const.STYLE_INFO);
+			print("");
+		} else {
+			// initialize progress bar in indeterminate mode
+			if (DirSync.isGuiMode()) {
+				DirSync.getGui().setDirProgressText("Counting");
+				DirSync.getGui().setDirProgressIndeterminate(true);
+			}
+
+			// initialize directory lister
+			DirectoryLister dl = new DirectoryLister(srcFile, log, DirSync.getSync()
+					.isSkipLinks());
+			// count files
+			long start = System.currentTimeMillis();
+			if (scanner != null && withSubfolders) {
+				countTotal = scanner.countFiles(srcFile, DirSync.getSync().isSkipLinks(), log);
+			} else {
+				countTotal = dl.countFiles(withSubfolders);
+			}
+			Progress.getProgress().addPhaseTime("Counting", System.currentTimeMillis() - start);
+			print("  Total number of files found in '"
+					+ srcFile.getAbsolutePath() + "'"
+					+ (withSubfolders ? " and it's subdirectories" : "") + ": "
+					+ countTotal, Const.STYLE_INFO);
+			print("");
+		}
+
+		Progress.getProgress().addTotalFiles(countTotal);
 
 		// set progress bar to determinate mode
 		if (DirSync.isGuiMode()) {
 			DirSync.getGui().setDirProgressText(null);
 			DirSync.getGui().setDirProgressIndeterminate(false);
-			DirSync.getGui().setDirProgressMaximum(count);
+			DirSync.getGui().setDirProgressMaximum(countTotal);
 			DirSync.getGui().setProgress(0, "");
 		}
 		
 		// reset counters
-		count = 0;
-		countCopyAll = 0;
-		countCopyNew = 0;
-		countCopyModified = 0;
-		countCopyLarger = 0;
-		countCopyLargerModified = 0;
-		countDeleteFiles = 0;
-		countDeleteDirs = 0;
+		count.set(0);
+		countCopyAll.set(0);
+		countCopyNew.set(0);
+		countCopyModified.set(0);
+		countCopyLarger.set(0);
+		countCopyLargerModified.set(0);
+		countDeleteFiles.set(0);
+		countDeleteDirs.set(0);
+		deltaWritten.set(0);
+		deltaLength.set(0);
+
+		deltaBlockSize = Math.max(512, DirSync.getIntProperty("dirsync.delta.blocksize", 65536));
+		deltaMinSize = getSizeProperty("dirsync.delta.minsize", 1048576L);
+		resumeMinSize = getSizeProperty("dirsync.copy.resumesize", 1073741824L);
+
+		// start the copy workers (if any)
+		int copyWorkers = DirSync.getIntProperty("dirsync.copy.workers", 0);
+		if (copyWorkers > 0) {
+			pipeline = new CopyPipeline(this, copyWorkers, Math.max(1, DirSync
+					.getIntProperty("dirsync.copy.queuesize", 1000)));
+			pipeline.start();
+		}
+
+		// mirror mode: walk the source and the destination tree together and
+		// collect the deletions instead of walking the destination again
+		List deletions = (DirSync.getBooleanProperty("dirsync.sync.mirror", false)
+				&& (deleteFiles || deleteDirs)) ? new ArrayList() : null;
 
 		// RECURSIVE START
-		synchronizeCopy(srcFile);
+		long start = System.currentTimeMillis();
+		try {
+			if (changedDirs == null) {
+				if (deletions != null) {
+					synchronizeMirror(srcFile, true, true, deletions);
+				} else {
+					synchronizeCopy(srcFile, true);
+				}
+			} else {
+				for (Iterator iter = changedDirs.entrySet().iterator(); iter.hasNext()
+						&& !DirSync.getSync().isStopping();) {
+					Map.Entry entry = (Map.Entry) iter.next();
+					File changed = (File) entry.getKey();
+					boolean recursive = withSubfolders
+							&& ((Boolean) entry.getValue()).booleanValue();
+
+					if (changed.isDirectory()) {
+						if (!DirSync.getSync().isPreview()) {
+							makeDirectory(replacePath(changed, srcFile, dstFile));
+						}
+						if (deletions != null) {
+							synchronizeMirror(changed, recursive, true, deletions);
+						} else {
+							synchronizeCopy(changed, recursive);
+						}
+					} else if (deletions != null
+							&& replacePath(changed, srcFile, dstFile).isDirectory()) {
+						synchronizeMirror(changed, recursive, false, deletions);
+					}
+				}
+			}
+		} finally {
+			// wait until all queued files are copied
+			if (pipeline != null) {
+				CopyPipeline finished = pipeline;
+				pipeline = null;
+				finished.finish();
+			}
+			if (scanner != null) {
+				scanner.shutdown();
+				scanner = null;
+			}
+			Progress.getProgress().addPhaseTime("Copying", System.currentTimeMillis() - start);
+		}
+		if (!DirSync.getSync().isPreview()) {
+			fsyncFinished(null);
+		}
+
+		if (singlePass && changedDirs == null && !DirSync.getSync().isStopping()) {
+			countLastRun = countFound;
+			countTotal = countFound;
+			print("  Total number of included files found in '"
+					+ srcFile.getAbsolutePath() + "'"
+					+ (withSubfolders ? " and it's subdirectories" : "") + ": "
+					+ countFound, Const.STYLE_INFO);
+			print("");
+		}
 		if (deleteFiles || deleteDirs) {
-			if (DirSync.getSync().getError() == Sync.ERROR_THIS_DIRECTORY) {
+			if (error == Sync.ERROR_THIS_DIRECTORY) {
 				print(
 								"  Skipping 'Delete Files' and 'Delete Dirs' because of errors while synchronizing this directory.",
 								Const.STYLE_WARNING);
@@ -344,7 +804,24 @@ public class Directory extends DirectoryVarGetSet {
 					DirSync.getGui().setProgress(0, "");
 				}
 				
-				synchronizeDelete(dstFile);
+				start = System.currentTimeMillis();
+				if (deletions != null) {
+					executeDeletions(deletions);
+				} else if (changedDirs == null) {
+					synchronizeDelete(dstFile, true);
+				} else {
+					for (Iterator iter = changedDirs.entrySet().iterator(); iter.hasNext()
+							&& !DirSync.getSync().isStopping();) {
+						Map.Entry entry = (Map.Entry) iter.next();
+						File changed = replacePath((File) entry.getKey(), srcFile, dstFile);
+
+						if (changed.isDirectory()) {
+							synchronizeDelete(changed, withSubfolders
+									&& ((Boolean) entry.getValue()).booleanValue());
+						}
+					}
+				}
+				Progress.getProgress().addPhaseTime("Deleting", System.currentTimeMillis() - start);
 				
 				if (DirSync.isGuiMode()) {
 					// set progress bar to determinate mode
@@ -356,53 +833,64 @@ public class Directory extends DirectoryVarGetSet {
 			}
 		} // RECURSIVE END
 
-		if (countCopyAll > 0) {
+		if (index != null && !DirSync.getSync().isPreview()) {
+			writeIndex();
+		}
+		if (manifest != null && !DirSync.getSync().isPreview()) {
+			writeManifest(changedDirs != null);
+		}
+
+		if (countCopyAll.get() > 0) {
 			print(
 					"  (" + (DirSync.getSync().isPreview() ? "Preview of " : "")
 							+ "Copy All) files copied: "
-							+ String.valueOf(countCopyAll), Const.STYLE_INFO);
+							+ String.valueOf(countCopyAll.get()), Const.STYLE_INFO);
 		}
-		if (countCopyNew > 0) {
+		if (countCopyNew.get() > 0) {
 			print(
 					"  (" + (DirSync.getSync().isPreview() ? "Preview of " : "")
 							+ "Copy New) files copied: "
-							+ String.valueOf(countCopyNew), Const.STYLE_INFO);
+							+ String.valueOf(countCopyNew.get()), Const.STYLE_INFO);
 		}
-		if (countCopyModified > 0) {
+		if (countCopyModified.get() > 0) {
 			print("  ("
 					+ (DirSync.getSync().isPreview() ? "Preview of " : "")
 					+ "Copy Modified) files copied: "
-					+ String.valueOf(countCopyModified), Const.STYLE_INFO);
+					+ String.valueOf(countCopyModified.get()), Const.STYLE_INFO);
 		}
-		if (countCopyLarger > 0) {
+		if (countCopyLarger.get() > 0) {
 			print("  ("
 					+ (DirSync.getSync().isPreview() ? "Preview of " : "")
 					+ "Copy Larger) files copied: "
-					+ String.valueOf(countCopyLarger), Const.STYLE_INFO);
+					+ String.valueOf(countCopyLarger.get()), Const.STYLE_INFO);
 		}
-		if (countCopyLargerModified > 0) {
+		if (countCopyLargerModified.get() > 0) {
 			print("  ("
 					+ (DirSync.getSync().isPreview() ? "Preview of " : "")
 					+ "Copy Larger&Modified) files copied: "
-					+ String.valueOf(countCopyLargerModified), Const.STYLE_INFO);
+					+ String.valueOf(countCopyLargerModified.get()), Const.STYLE_INFO);
+		}
+		if (deltaLength.get() > 0) {
+			print("  (Delta Copy) bytes written: " + deltaWritten.get()
+					+ " of " + deltaLength.get(), Const.STYLE_INFO);
 		}
-		if (countDeleteFiles > 0) {
+		if (countDeleteFiles.get() > 0) {
 			print("  ("
 					+ (DirSync.getSync().isPreview() ? "Preview of " : "")
 					+ "Delete Files) files deleted: "
-					+ String.valueOf(countDeleteFiles), Const.STYLE_INFO);
+					+ String.valueOf(countDeleteFiles.get()), Const.STYLE_INFO);
 		}
-		if (countDeleteDirs > 0) {
+		if (countDeleteDirs.get() > 0) {
 			print("  ("
 					+ (DirSync.getSync().isPreview() ? "Preview of " : "")
 					+ "Delete Dirs) directories deleted: "
-					+ String.valueOf(countDeleteDirs), Const.STYLE_INFO);
+					+ String.valueOf(countDeleteDirs.get()), Const.STYLE_INFO);
 		}
 
-		if ((countCopyAll == 0) && (countCopyNew == 0)
-				&& (countCopyModified == 0) && (countCopyLarger == 0)
-				&& (countCopyLargerModified == 0) && (countDeleteFiles == 0)
-				&& (countDeleteDirs == 0)) {
+		if ((countCopyAll.get() == 0) && (countCopyNew.get() == 0)
+				&& (countCopyModified.get() == 0) && (countCopyLarger.get() == 0)
+				&& (countCopyLargerModified.get() == 0) && (countDeleteFiles.get() == 0)
+				&& (countDeleteDirs.get() == 0)) {
 
 			// if there was nothing to do in the preview, disable this dir
 			if (DirSync.getSync().isPreview()) {
@@ -427,7 +915,25 @@ public class Directory extends DirectoryVarGetSet {
 		}
 	}
 
-	private void synchronizeCopy(File dir) throws Exception {
+	private void synchronizeCopy(File dir, boolean recursive) throws Exception {
+		synchronizeCopy(dir, recursive, (scanner != null) ? scanner.scan(dir, withSubfolders
+				&& recursive) : null);
+	}
+
+	/**
+	 * Synchronizes a source directory.
+	 * 
+	 * @param dir
+	 *            The source directory.
+	 * @param recursive
+	 *            <code>true</code> to synchronize the subdirectories.
+	 * @param node
+	 *            The directory as read by the tree scanner or
+	 *            <code>null</code> to read it now.
+	 * @throws Exception
+	 */
+	private void synchronizeCopy(File dir, boolean recursive, TreeScanner.Node node)
+			throws Exception {
 		int i;
 
 		DirSync.getSync().sleepOnPause();
@@ -435,37 +941,52 @@ public class Directory extends DirectoryVarGetSet {
 			return;
 		}
 
-		// read files and directories
-		DirectoryLister dirLister = new DirectoryLister(dir, log, DirSync.getSync()
-				.isSkipLinks());
+		// read files and directories (or wait until they have been read)
+		DirectoryLister dirLister;
+		if (node != null) {
+			if (!node.await()) {
+				return; // stopped
+			}
+			dirLister = node.getLister();
+		} else {
+			dirLister = newSourceLister(dir);
+		}
 
-		File[] dirs = dirLister.listDirectories(dirIncludes, dirExcludes, true);
+		FileEntry[] dirs = dirLister.listDirectoryEntries(dirIncludes, dirExcludes, true);
 		// create a new array of destination dirs
 		// (path changed from source to destination)
-		File[] dstDirs = Directory.replacePath(dirs, srcFile, dstFile);
+		File[] dstDirs = Directory.replacePath(FileEntry.toFiles(dirs), srcFile, dstFile);
 
-		File[] files = dirLister.listFiles(fileIncludes, fileExcludes, true);
+		FileEntry[] files = dirLister.listFileEntries(fileIncludes, fileExcludes, true);
+		if (singlePass) {
+			filesFound(files.length);
+		}
+		Arrays.sort(files, FileEntry.NAME_ORDER);
 
 		// create a new array of destination files
 		// (path changed from source to destination)
-		File[] dstFiles = Directory.replacePath(files, srcFile, dstFile);
-
-		// files
-		for (i = 0; i < files.length; i++) {
-
-			DirSync.getSync().sleepOnPause();
-			if (DirSync.getSync().isStopping()) {
-				break;
+		File[] dstFiles = Directory.replacePath(FileEntry.toFiles(files), srcFile, dstFile);
+
+		// the destination files as listed; unless the snapshot index knows
+		// them, the destination directory is read once (or taken from the
+		// manifest) instead of querying every destination file
+		FileEntry[] dstEntries = null;
+		if ((index == null || manifest != null) && files.length > 0) {
+			FileEntry[] listed = (node != null) ? node.getDstEntries() : null;
+			if (listed == null) {
+				listed = listDestination(Directory.replacePath(dir, srcFile, dstFile));
 			}
+			dstEntries = matchEntries(files, listed);
+		}
+		if (node != null) {
+			node.release();
+		}
 
-			copy(files[i], dstFiles[i]);
-			count++;
-			if (DirSync.isGuiMode()) {
-				DirSync.getGui().setProgress(count, files[i].getCanonicalPath());
-			}	
-		} // free memory allocated by files
+		copyFiles(dir, files, dstFiles, dstEntries);
+		// free memory allocated by files
 		files = null;
 		dstFiles = null;
+		dstEntries = null;
 
 		DirSync.getSync().sleepOnPause();
 		if (DirSync.getSync().isStopping()) {
@@ -479,20 +1000,562 @@ public class Directory extends DirectoryVarGetSet {
 				break;
 			}
 
-			if (withSubfolders) {
-				synchronizeCopy(dirs[i]);
+			if (withSubfolders && recursive) {
+				synchronizeCopy(dirs[i].getFile(), true, (node != null) ? node.child(i, dirs[i]
+						.getFile()) : null);
 				if (!DirSync.getSync().isPreview()) {
 					// Creating all directories solves the problem of copying
 					// empty directories.
-					dstDirs[i].mkdirs();
+					makeDirectory(dstDirs[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the files of a source directory (or queues them for the copy
+	 * workers).
+	 * 
+	 * @param dir
+	 *            The source directory.
+	 * @param files
+	 *            The source files.
+	 * @param dstFiles
+	 *            The destination files.
+	 * @param dstEntries
+	 *            The destination entries of the files (see
+	 *            {@link #matchEntries(FileEntry[], FileEntry[])}) or
+	 *            <code>null</code> if the destination directory hasn't been
+	 *            listed.
+	 * @throws Exception
+	 */
+	private void copyFiles(File dir, FileEntry[] files, File[] dstFiles, FileEntry[] dstEntries)
+			throws Exception {
+		for (int i = 0; i < files.length; i++) {
+
+			DirSync.getSync().sleepOnPause();
+			if (DirSync.getSync().isStopping()) {
+				break;
+			}
+
+			FileEntry dstEntry = (dstEntries != null) ? dstEntries[i] : null;
+			if (pipeline != null) {
+				// copied by the workers of the pipeline
+				pipeline.copy(files[i], dstFiles[i], dstEntry, dstEntries != null);
+			} else {
+				copyFile(files[i], dstFiles[i], dstEntry, dstEntries != null);
+			}
+		}
+		if (pipeline == null && !DirSync.getSync().isPreview()) {
+			fsyncFinished(Directory.replacePath(dir, srcFile, dstFile));
+		}
+	}
+
+	/**
+	 * Synchronizes a source directory and its destination directory in one
+	 * walk of both trees (mirror mode): both directories are listed once, the
+	 * files are copied as in {@link #synchronizeCopy(File, boolean)}, and the
+	 * destination files and directories that
+	 * {@link #synchronizeDelete(File, boolean)} would delete are collected in
+	 * the same order. The deletions are carried out after the walk (and only
+	 * if there were no errors).
+	 * 
+	 * @param dir
+	 *            The source directory.
+	 * @param recursive
+	 *            <code>true</code> to walk the subdirectories.
+	 * @param copy
+	 *            <code>false</code> if the directory isn't synchronized, but
+	 *            only its destination directory is checked for deletion.
+	 * @param deletions
+	 *            The list to add the deletions to: Object[] {File, Boolean
+	 *            (directory)}.
+	 * @throws Exception
+	 */
+	private void synchronizeMirror(File dir, boolean recursive, boolean copy, List deletions)
+			throws Exception {
+		DirSync.getSync().sleepOnPause();
+		if (DirSync.getSync().isStopping()) {
+			return;
+		}
+
+		File dstDir = Directory.replacePath(dir, srcFile, dstFile);
+
+		// read both directories once (don't skip links in the destination
+		// directory, so they can be deleted)
+		DirectoryLister srcLister = newSourceLister(dir);
+		FileEntry[] srcAll = srcLister.listSortedEntries();
+		FileEntry[] dstAll = listDestination(dstDir);
+
+		FileEntry[] dirs = new FileEntry[0];
+		if (copy) {
+			dirs = srcLister.listDirectoryEntries(dirIncludes, dirExcludes, true);
+			FileEntry[] files = srcLister.listFileEntries(fileIncludes, fileExcludes, true);
+			if (singlePass) {
+				filesFound(files.length);
+			}
+			Arrays.sort(files, FileEntry.NAME_ORDER);
+			Arrays.sort(dirs, FileEntry.NAME_ORDER);
+
+			copyFiles(dir, files, Directory.replacePath(FileEntry.toFiles(files), srcFile, dstFile),
+					matchEntries(files, dstAll));
+		}
+
+		// the destination files and directories (links followed)
+		List dstFileList = new ArrayList();
+		List dstDirList = new ArrayList();
+		for (int i = 0; i < dstAll.length; i++) {
+			if (dstAll[i].isFile()) {
+				dstFileList.add(dstAll[i]);
+			} else if (dstAll[i].isDirectory()) {
+				dstDirList.add(dstAll[i]);
+			}
+		}
+		FileEntry[] dstFiles = (FileEntry[]) dstFileList.toArray(new FileEntry[dstFileList.size()]);
+		FileEntry[] dstDirs = (FileEntry[]) dstDirList.toArray(new FileEntry[dstDirList.size()]);
+
+		// files
+		FileEntry[] inSrc = matchEntries(dstFiles, srcAll);
+		for (int i = 0; i < dstFiles.length; i++) {
+			if (isFileDeleted(dstFiles[i].getFile(), inSrc[i] != null && inSrc[i].exists())) {
+				deletions.add(new Object[] { dstFiles[i].getFile(), Boolean.FALSE });
+			}
+		}
+
+		// directories: the synchronized source directories and the
+		// destination directories, merged by name
+		inSrc = matchEntries(dstDirs, srcAll);
+		int i = 0;
+		int d = 0;
+		while (i < dirs.length || d < dstDirs.length) {
+			DirSync.getSync().sleepOnPause();
+			if (DirSync.getSync().isStopping()) {
+				return;
+			}
+
+			int cmp = (i == dirs.length) ? 1 : (d == dstDirs.length) ? -1 : FileEntry
+					.compareNames(dirs[i].getName(), dstDirs[d].getName());
+			// a synchronized source directory (cmp <= 0) or a destination
+			// directory without one (cmp > 0)
+			boolean synced = (cmp <= 0);
+			File sub = synced ? dirs[i].getFile() : Directory.replacePath(dstDirs[d].getFile(),
+					dstFile, srcFile);
+
+			if (withSubfolders && recursive) {
+				synchronizeMirror(sub, true, synced, deletions);
+				if (synced && !DirSync.getSync().isPreview()) {
+					// Creating all directories solves the problem of copying
+					// empty directories.
+					makeDirectory(Directory.replacePath(sub, srcFile, dstFile));
+				}
+			}
+			if (cmp >= 0 && isDirDeleted(dstDirs[d].getFile(), inSrc[d] != null && inSrc[d].exists())) {
+				deletions.add(new Object[] { dstDirs[d].getFile(), Boolean.TRUE });
+			}
+
+			if (cmp <= 0) {
+				i++;
+			}
+			if (cmp >= 0) {
+				d++;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the files and directories collected by
+	 * {@link #synchronizeMirror(File, boolean, boolean, List)}.
+	 * 
+	 * @param deletions
+	 *            The deletions: Object[] {File, Boolean (directory)}.
+	 */
+	private void executeDeletions(List deletions) {
+		for (Iterator iter = deletions.iterator(); iter.hasNext();) {
+			DirSync.getSync().sleepOnPause();
+			if (DirSync.getSync().isStopping()) {
+				break;
+			}
+
+			Object[] deletion = (Object[]) iter.next();
+			File file = (File) deletion[0];
+			if (DirSync.isGuiMode()) {
+				// set progress
+				DirSync.getGui().setProgress(count.get(), file.getAbsolutePath());
+			}
+			if (((Boolean) deletion[1]).booleanValue()) {
+				deleteDirectory(file);
+			} else {
+				deleteFile(file);
+			}
+		}
+	}
+
+	/**
+	 * Joins the sorted source files with the sorted entries of the
+	 * destination directory (merge join).
+	 * 
+	 * @param files
+	 *            The source files sorted by <code>FileEntry.NAME_ORDER</code>.
+	 * @param dstEntries
+	 *            The entries of the destination directory sorted the same
+	 *            way.
+	 * @return FileEntry[] The destination entry of every source file or
+	 *         <code>null</code> if it has none.
+	 */
+	private static FileEntry[] matchEntries(FileEntry[] files, FileEntry[] dstEntries) {
+		FileEntry[] matches = new FileEntry[files.length];
+		int j = 0;
+
+		for (int i = 0; i < files.length && j < dstEntries.length; i++) {
+			int cmp;
+			while (j < dstEntries.length
+					&& (cmp = FileEntry.compareNames(dstEntries[j].getName(), files[i].getName())) <= 0) {
+				if (cmp == 0) {
+					matches[i] = dstEntries[j];
+				}
+				j++;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Lists the subdirectories of the given source directory that are
+	 * synchronised, i.e. that match the directory include and don't match the
+	 * directory exclude patterns.
+	 * 
+	 * @param dir
+	 *            The source directory.
+	 * @return File[] The subdirectories.
+	 */
+	public File[] listSubdirectories(File dir) {
+		DirectoryLister dirLister = new DirectoryLister(dir, DirSync.getLog(),
+				DirSync.getSync().isSkipLinks());
+
+		return dirLister.listDirectories(dirIncludes, dirExcludes, false);
+	}
+
+	/**
+	 * Checks if the given subdirectory of a source directory is synchronised,
+	 * i.e. if it matches the directory include and doesn't match the directory
+	 * exclude patterns.
+	 * 
+	 * @param dir
+	 *            The subdirectory.
+	 * @return <code>true</code> if the subdirectory is synchronised.
+	 */
+	public boolean isSynchronized(File dir) {
+		if (DirSync.getSync().isSkipLinks() && FileTools.isLink(dir)) {
+			return false;
+		}
+		return FileTools.checkFileMatchesPatterns(dir, dirIncludes)
+				&& !FileTools.checkFileMatchesPatterns(dir, dirExcludes);
+	}
+
+	/**
+	 * Writes the snapshot index and the directory cache after a successful
+	 * run; after an incomplete run both are deleted, so that the next run
+	 * checks every file.
+	 */
+	private void writeIndex() {
+		if (DirSync.getSync().isStopping() || error == Sync.ERROR_THIS_DIRECTORY) {
+			index.delete();
+			if (dirCache != null) {
+				dirCache.delete();
+			}
+			return;
+		}
+
+		try {
+			index.save();
+			if (dirCache != null) {
+				dirCache.save();
+			}
+		} catch (IOException e) {
+			index.delete();
+			if (dirCache != null) {
+				dirCache.delete();
+			}
+			synchronized (log) {
+				raiseError(Sync.WARNING);
+				print("  Warning: Snapshot index '" + indexfile
+						+ "' couldn't be written: " + e.getMessage(),
+						Const.STYLE_WARNING);
+				print("");
+			}
+		}
+	}
+
+	/**
+	 * Reads the destination manifest. The manifest is reconciled with the
+	 * destination if it is missing or stale, if the last reconcile pass is
+	 * older than <code>dirsync.manifest.reconcile</code> days, or on demand.
+	 * Unless previewing, the manifest file is deleted until it is written
+	 * again at the end of the run, so that a crash never leaves an outdated
+	 * manifest behind.
+	 * 
+	 * @param full
+	 *            <code>true</code> if the whole directory is synchronized
+	 *            (not only changes).
+	 */
+	private void openManifest(boolean full) {
+		DestinationManifest m = new DestinationManifest(new File(manifestfile), dstFile);
+		boolean loaded = m.load();
+		int days = DirSync.getIntProperty("dirsync.manifest.reconcile", 7);
+		boolean due = full && (DirSync.getSync().isReconcile() || (days >= 0
+				&& System.currentTimeMillis() - m.getReconciled() >= days * 24L * 60 * 60 * 1000));
+
+		if (!DirSync.getSync().isPreview()) {
+			m.delete();
+		}
+
+		if (loaded) {
+			print("  Destination manifest '" + manifestfile + "' read: "
+					+ m.size() + " entries.", Const.STYLE_INFO);
+		} else {
+			print("  Destination manifest '" + manifestfile
+					+ "' missing or stale: reading the destination.",
+					Const.STYLE_INFO);
+		}
+
+		if (!loaded || due) {
+			if (loaded) {
+				print("  Reconciling the destination manifest with '"
+						+ dstFile.getAbsolutePath() + "'.", Const.STYLE_INFO);
+			}
+			long start = System.currentTimeMillis();
+			List workFiles = new ArrayList();
+			List drift = m.reconcile(DirSync.getBooleanProperty("dirsync.manifest.reconcile.hash", false),
+					workFiles);
+			Progress.getProgress().addPhaseTime("Reconciling", System.currentTimeMillis() - start);
+			if (drift == null) {
+				return; // stopped
+			}
+			for (Iterator iter = workFiles.iterator(); iter.hasNext();) {
+				deleteOrphanedWorkFile((File) iter.next());
+			}
+			if (loaded) {
+				reportDrift(drift);
+			}
+		}
+		print("");
+		manifest = m;
+	}
+
+	/**
+	 * Logs the differences between the destination manifest and the
+	 * destination found by a reconcile pass.
+	 * 
+	 * @param drift
+	 *            The differences: String[] {kind, path}.
+	 */
+	private void reportDrift(List drift) {
+		if (drift.isEmpty()) {
+			print("  No changes made by other programs found.", Const.STYLE_INFO);
+			return;
+		}
+
+		synchronized (log) {
+			raiseError(Sync.WARNING);
+			if (log.isLogged(Log.DETAIL)) {
+				for (Iterator iter = drift.iterator(); iter.hasNext();) {
+					String[] d = (String[]) iter.next();
+					log.print("    (Drift: " + d[0] + ") '" + d[1] + "'", Const.STYLE_WARNING);
+				}
+			}
+			print("  Warning: " + drift.size() + " entr" + (drift.size() == 1 ? "y" : "ies")
+					+ " of the destination changed by other programs.", Const.STYLE_WARNING);
+		}
+	}
+
+	/**
+	 * Writes the destination manifest after a successful run. After an
+	 * incomplete run the manifest file stays deleted, so that the next run
+	 * reads the destination again. The changes of watch mode only keep the
+	 * manifest in memory; it is written by {@link #saveManifest()}.
+	 * 
+	 * @param changes
+	 *            <code>true</code> if only changes have been synchronized.
+	 */
+	private void writeManifest(boolean changes) {
+		if (DirSync.getSync().isStopping() || error == Sync.ERROR_THIS_DIRECTORY) {
+			manifest.delete();
+			manifestKept = false;
+			manifestPending = false;
+			return;
+		}
+
+		manifestKept = true;
+		if (changes) {
+			manifestPending = true;
+		} else {
+			manifestPending = false;
+			manifestKept = saveManifestFile();
+		}
+	}
+
+	/**
+	 * Writes the destination manifest kept in memory by watch mode (if it has
+	 * been changed since it was written).
+	 */
+	public void saveManifest() {
+		if (manifest != null && manifestPending) {
+			manifestPending = false;
+			manifestKept = saveManifestFile();
+		}
+	}
+
+	/**
+	 * Writes the destination manifest file; a manifest that can't be written
+	 * is deleted.
+	 * 
+	 * @return <code>true</code> if the manifest has been written.
+	 */
+	private boolean saveManifestFile() {
+		try {
+			manifest.save();
+			return true;
+		} catch (IOException e) {
+			manifest.delete();
+			synchronized (log) {
+				raiseError(Sync.WARNING);
+				print("  Warning: Destination manifest '" + manifestfile
+						+ "' couldn't be written: " + e.getMessage(),
+						Const.STYLE_WARNING);
+				print("");
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the lister of a source directory.
+	 * 
+	 * @param dir
+	 *            The source directory.
+	 * @return The lister.
+	 */
+	DirectoryLister newSourceLister(File dir) {
+		DirectoryLister dirLister = new DirectoryLister(dir, log, DirSync.getSync()
+				.isSkipLinks());
+		dirLister.setCache(dirCache);
+		return dirLister;
+	}
+
+	/**
+	 * Lists the synchronized subdirectories of a source directory without
+	 * logging the excluded ones (for the tree scanner).
+	 * 
+	 * @param dirLister
+	 *            The lister of the source directory.
+	 * @return FileEntry[] The subdirectories.
+	 */
+	FileEntry[] scanSubdirectories(DirectoryLister dirLister) {
+		return dirLister.listDirectoryEntries(dirIncludes, dirExcludes, false);
+	}
+
+	/**
+	 * Lists the destination directory of a source directory if its files are
+	 * decided from the listing (for the tree scanner).
+	 * 
+	 * @param dir
+	 *            The source directory.
+	 * @param dirLister
+	 *            The lister of the source directory.
+	 * @return FileEntry[] The sorted entries of the destination directory or
+	 *         <code>null</code> if it isn't needed.
+	 */
+	FileEntry[] scanDestination(File dir, DirectoryLister dirLister) {
+		if ((index == null || manifest != null)
+				&& dirLister.listFileEntries(fileIncludes, fileExcludes, false).length > 0) {
+			return listDestination(Directory.replacePath(dir, srcFile, dstFile));
+		}
+		return null;
+	}
+
+	/**
+	 * Lists the entries of a destination directory: from the destination
+	 * manifest if one is used, otherwise the directory is read (links aren't
+	 * skipped, so they can be deleted). Work files of DirSync aren't listed;
+	 * those left behind for a source file that no longer exists are deleted.
+	 * 
+	 * @param dir
+	 *            The destination directory.
+	 * @return FileEntry[] The entries sorted by name.
+	 */
+	private FileEntry[] listDestination(File dir) {
+		if (manifest != null) {
+			return manifest.list(dir);
+		}
+
+		FileEntry[] entries = new DirectoryLister(dir, log, false).listSortedEntries();
+		List listed = null;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i].isFile() && FileTools.getWorkFileTarget(entries[i].getFile()) != null) {
+				if (listed == null) {
+					listed = new ArrayList(Arrays.asList(entries).subList(0, i));
 				}
+				deleteOrphanedWorkFile(entries[i].getFile());
+			} else if (listed != null) {
+				listed.add(entries[i]);
+			}
+		}
+		return (listed == null) ? entries : (FileEntry[]) listed.toArray(new FileEntry[listed.size()]);
+	}
+
+	/**
+	 * Deletes a work file of DirSync (the temporary file of a copy or the
+	 * checkpoint of a resumable copy) if its source file no longer exists, so
+	 * the copy will never be continued (not while previewing).
+	 * 
+	 * @param workFile
+	 *            The work file in the destination directory.
+	 */
+	private void deleteOrphanedWorkFile(File workFile) {
+		File target = FileTools.getWorkFileTarget(workFile);
+		if (DirSync.getSync().isPreview() || replacePath(target, dstFile, srcFile).isFile()) {
+			return;
+		}
+
+		if (workFile.delete() && log.isLogged(Log.DETAIL)) {
+			print("    Deleted leftover work file '"
+					+ workFile.getAbsolutePath() + "'.", Const.STYLE_ACTION);
+		}
+	}
+
+	/**
+	 * Creates a destination directory (and records it in the manifest).
+	 * 
+	 * @param dir
+	 *            The destination directory.
+	 */
+	private void makeDirectory(File dir) {
+		dir.mkdirs();
+		if (manifest != null) {
+			manifest.recordDirectory(dir);
+		}
+	}
+
+	/**
+	 * Adds the given number to the number of files found (single pass mode)
+	 * and raises the total number of files if necessary.
+	 * 
+	 * @param n
+	 *            The number of files found in a directory.
+	 */
+	private void filesFound(int n) {
+		countFound += n;
+		if (countFound > countTotal) {
+			Progress.getProgress().addTotalFiles(countFound - countTotal);
+			countTotal = countFound;
+			if (DirSync.isGuiMode()) {
+				DirSync.getGui().setDirProgressMaximum(countTotal);
 			}
 		}
 	}
 
-	private void synchronizeDelete(File dir) throws Exception {
+	private void synchronizeDelete(File dir, boolean recursive) throws Exception {
 		int i;
-		boolean delete = false;
 
 		DirSync.getSync().sleepOnPause();
 		if (DirSync.getSync().isStopping()) {
@@ -503,18 +1566,27 @@ public class Directory extends DirectoryVarGetSet {
 		// that don't exist in the source directory
 
 		// read files (don't skip links, so they can be deleted)
-		DirectoryLister dirLister = new DirectoryLister(dir, log, false);
+		FileEntry[] entries = listDestination(dir);
+		List dirList = new ArrayList();
+		List fileList = new ArrayList();
+		for (i = 0; i < entries.length; i++) {
+			if (entries[i].isDirectory()) {
+				dirList.add(entries[i].getFile());
+			} else if (entries[i].isFile()) {
+				fileList.add(entries[i].getFile());
+			}
+		}
 
 		// directories in destination directory
 		// (dont care for includes / excludes)
-		File[] dirs = dirLister.listDirectories();
+		File[] dirs = (File[]) dirList.toArray(new File[dirList.size()]);
 		// directories from destination directory with path changed to source
 		// directory
 		File[] dirsInSrc = Directory.replacePath(dirs, dstFile, srcFile);
 
 		// files in destination directory
 		// (dont care for includes / excludes)
-		File[] files = dirLister.listFiles();
+		File[] files = (File[]) fileList.toArray(new File[fileList.size()]);
 
 		// files from destination directory with path changed to source
 		// directory
@@ -529,51 +1601,12 @@ public class Directory extends DirectoryVarGetSet {
 
 			if (DirSync.isGuiMode()) {
 				// set progress
-				DirSync.getGui().setProgress(count, files[i].getAbsolutePath());
+				DirSync.getGui().setProgress(count.get(), files[i].getAbsolutePath());
 			}
 			
-			delete = true;
-			// check includes
-			if (FileTools.checkFileMatchesPatterns(files[i], fileIncludes)) {
-				delete = false;
-			}
-
-			// check excludes
-			if (FileTools.checkFileMatchesPatterns(files[i], fileExcludes)) {
-				delete = true;
-			}
-
-			if (deleteFiles) {
-				// file not in src, or (file in src but link with
-				// skipLinks selected or file is excluded)
-
-				if (!filesInSrc[i].exists()
-						|| (DirSync.getSync().isSkipLinks() && FileTools
-								.isLink(filesInSrc[i])) || delete) {
-
-					if (DirSync.getSync().isPreview()) {
-						log.print("    (Preview of Delete Files)", Const.STYLE_ACTION); 
-						log
-								.print("       '" + files[i].getAbsolutePath()
-										+ "'");
-						log.print("");
-						countDeleteFiles++;
-					} else {
-						if (files[i].delete()) {
-							log.print("    (Delete Files)", Const.STYLE_ACTION);
-							log.print("       '" + files[i].getAbsolutePath()
-									+ "'");
-							log.print("");
-							countDeleteFiles++;
-						} else {
-							log
-									.print("    (Delete Files) ERROR: Can't delete.", Const.STYLE_ERROR);
-							log.print("       '" + files[i].getAbsolutePath()
-									+ "'");
-							log.print("");
-						}
-					}
-				}
+			if (isFileDeleted(files[i], filesInSrc[i].exists()
+					&& !(DirSync.getSync().isSkipLinks() && FileTools.isLink(filesInSrc[i])))) {
+				deleteFile(files[i]);
 			}
 		}
 
@@ -584,52 +1617,93 @@ public class Directory extends DirectoryVarGetSet {
 				break;
 			}
 
-			if (withSubfolders) {
-				synchronizeDelete(dirs[i]);
+			if (withSubfolders && recursive) {
+				synchronizeDelete(dirs[i], true);
 			}
 
 			if (DirSync.isGuiMode()) {
 				// set progress
-				DirSync.getGui().setProgress(count, dirs[i].getAbsolutePath());
+				DirSync.getGui().setProgress(count.get(), dirs[i].getAbsolutePath());
 			}	
 
-			delete = true;
-			// check includes
-			if (FileTools.checkFileMatchesPatterns(dirs[i], dirIncludes)) {
-				delete = false;
-			}
-
-			// check excludes
-			if (FileTools.checkFileMatchesPatterns(dirs[i], dirExcludes)) {
-				delete = true;
-			}
-
-			if (deleteDirs) { // dir not in src, or dir in src but link with
-				// skipLinks selected
-				if (!dirsInSrc[i].exists()
-						|| (DirSync.getSync().isSkipLinks() && FileTools
-								.isLink(dirsInSrc[i])) || delete) {
-
-					if (DirSync.getSync().isPreview()) {
-						log.print("    (Preview of Delete Dirs)", Const.STYLE_ACTION); 
-						log.print("       '" + dirs[i].getAbsolutePath() + "'");
-						log.print("");
-						countDeleteDirs++;
-					} else {
-						if (FileTools.deleteDir(dirs[i])) {
-							log.print("    (Delete Dirs)", Const.STYLE_ACTION);
-							log.print("       '" + dirs[i].getAbsolutePath()
-									+ "'");
-							log.print("");
-							countDeleteDirs++;
-						} else {
-							log.print("    (Delete Dirs) ERROR: Can't delete.", Const.STYLE_ERROR);
-							log.print("       '" + dirs[i].getAbsolutePath()
-									+ "'");
-							log.print("");
-						}
-					}
+			if (isDirDeleted(dirs[i], dirsInSrc[i].exists()
+					&& !(DirSync.getSync().isSkipLinks() && FileTools.isLink(dirsInSrc[i])))) {
+				deleteDirectory(dirs[i]);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a file of the destination directory is deleted: if it isn't
+	 * in the source directory (or is a skipped link there) or if it doesn't
+	 * match the file include or matches the file exclude patterns.
+	 * 
+	 * @param file
+	 *            The file in the destination directory.
+	 * @param inSrc
+	 *            <code>true</code> if the file exists in the source directory
+	 *            (and isn't a skipped link).
+	 * @return <code>true</code> if the file is deleted.
+	 */
+	private boolean isFileDeleted(File file, boolean inSrc) {
+		boolean delete = !FileTools.checkFileMatchesPatterns(file, fileIncludes)
+				|| FileTools.checkFileMatchesPatterns(file, fileExcludes);
+
+		return deleteFiles && (!inSrc || delete);
+	}
+
+	/**
+	 * Checks if a directory of the destination directory is deleted (see
+	 * {@link #isFileDeleted(File, boolean)}).
+	 * 
+	 * @param dir
+	 *            The directory in the destination directory.
+	 * @param inSrc
+	 *            <code>true</code> if the directory exists in the source
+	 *            directory (and isn't a skipped link).
+	 * @return <code>true</code> if the directory is deleted.
+	 */
+	private boolean isDirDeleted(File dir, boolean inSrc) {
+		boolean delete = !FileTools.checkFileMatchesPatterns(dir, dirIncludes)
+				|| FileTools.checkFileMatchesPatterns(dir, dirExcludes);
+
+		return deleteDirs && (!inSrc || delete);
+	}
+
+	private void deleteFile(File file) {
+		if (DirSync.getSync().isPreview()) {
+			logAction("Delete Files", null, Const.STYLE_ACTION, file, null, null);
+			countDeleteFiles.incrementAndGet();
+			Progress.getProgress().fileDeleted();
+		} else {
+			if (file.delete()) {
+				if (manifest != null) {
+					manifest.remove(file);
 				}
+				logAction("Delete Files", null, Const.STYLE_ACTION, file, null, null);
+				countDeleteFiles.incrementAndGet();
+				Progress.getProgress().fileDeleted();
+			} else {
+				logAction("Delete Files", " ERROR: Can't delete.", Const.STYLE_ERROR, file, null, null);
+			}
+		}
+	}
+
+	private void deleteDirectory(File dir) {
+		if (DirSync.getSync().isPreview()) {
+			logAction("Delete Dirs", null, Const.STYLE_ACTION, dir, null, null);
+			countDeleteDirs.incrementAndGet();
+			Progress.getProgress().fileDeleted();
+		} else {
+			if (FileTools.deleteDir(dir)) {
+				if (manifest != null) {
+					manifest.remove(dir);
+				}
+				logAction("Delete Dirs", null, Const.STYLE_ACTION, dir, null, null);
+				countDeleteDirs.incrementAndGet();
+				Progress.getProgress().fileDeleted();
+			} else {
+				logAction("Delete Dirs", " ERROR: Can't delete.", Const.STYLE_ERROR, dir, null, null);
 			}
 		}
 	}
@@ -677,4 +1751,18 @@ public class Directory extends DirectoryVarGetSet {
 		setDelFiles(dir.isDelFiles());
 		setDelDirs(dir.isDelDirs());
 	}
+
+	/**
+	 * Copies the options that are only set in the configuration file (not in
+	 * the GUI) from the given directory to this directory.
+	 * 
+	 * @param dir
+	 *            The directory from which to copy the options.
+	 */
+	public void copyFileOptions(Directory dir) {
+		setIndexfile(dir.getIndexfile());
+		setManifestfile(dir.getManifestfile());
+		setDeltaCopy(dir.isDeltaCopy());
+		setLogLevel(dir.getLogLevel());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+/*
+ * DirectoryCache.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.directory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dirsync.DirSync;
+
+/**
+ * The names of the entries of every source directory read by the last
+ * successful run, together with the modification date of the directory. A
+ * directory whose modification date is unchanged hasn't gained or lost
+ * entries, so its names are taken from the cache and only the entries
+ * themselves are read; the directory isn't read again.
+ * <p>
+ * A listing is only trusted if the directory was modified at least
+ * <code>GRANULARITY</code> milliseconds before it was read, because an entry
+ * added within the resolution of the modification date wouldn't change it.
+ * On file systems that don't update the modification date of a directory
+ * reliably (e.g. some network file systems) the cache must be switched off
+ * with <code>dirsync.sync.dircache=false</code>.
+ * <p>
+ * The cache is written like the snapshot index: to a temporary file that
+ * replaces the old cache only when it is complete.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class DirectoryCache {
+
+	// identifies the file format
+	private static final String MAGIC = "DirSync directory cache 1";
+
+	// the resolution of directory modification dates assumed (FAT: 2 s)
+	private static final long GRANULARITY = 2000;
+
+	private final File file;
+
+	private final File src;
+
+	// the listings read from the cache file (empty if missing or stale)
+	private Map previous = new HashMap();
+
+	// the listings of the running synchronization
+	private final Map current = new ConcurrentHashMap();
+
+	/**
+	 * The recorded listing of a directory.
+	 */
+	static class Entry {
+
+		final long lastModified;
+
+		final long listed;
+
+		final String[] names;
+
+		Entry(long lastModified, long listed, String[] names) {
+			this.lastModified = lastModified;
+			this.listed = listed;
+			this.names = names;
+		}
+	}
+
+	/**
+	 * Initializes a new DirectoryCache.
+	 *
+	 * @param file
+	 *            The cache file.
+	 * @param src
+	 *            The source directory.
+	 */
+	DirectoryCache(File file, File src) {
+		this.file = file;
+		this.src = src;
+	}
+
+	/**
+	 * Checks if the directory cache is switched on
+	 * (<code>dirsync.sync.dircache</code>).
+	 *
+	 * @return <code>true</code> if the cache may be used.
+	 */
+	static boolean isEnabled() {
+		return DirSync.getBooleanProperty("dirsync.sync.dircache", true);
+	}
+
+	/**
+	 * Reads the cache file.
+	 *
+	 * @return <code>true</code> if the cache has been read,
+	 *         <code>false</code> if it is missing or stale.
+	 */
+	boolean load() {
+		previous = new HashMap();
+
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+
+			if (!in.readUTF().equals(MAGIC)
+					|| !in.readUTF().equals(src.getAbsolutePath())) {
+				return false;
+			}
+
+			Map entries = new HashMap();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String path = in.readUTF();
+				long lastModified = in.readLong();
+				long listed = in.readLong();
+				String[] names = new String[in.readInt()];
+				for (int j = 0; j < names.length; j++) {
+					names[j] = in.readUTF();
+				}
+				entries.put(path, new Entry(lastModified, listed, names));
+			}
+
+			// the number of entries is repeated at the end
+			if (in.readInt() != n) {
+				return false;
+			}
+
+			previous = entries;
+			return true;
+		} catch (EOFException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of directories read from the cache file.
+	 *
+	 * @return The number of directories.
+	 */
+	int size() {
+		return previous.size();
+	}
+
+	/**
+	 * Looks up the names of the entries of a directory.
+	 *
+	 * @param dir
+	 *            The directory.
+	 * @param lastModified
+	 *            The current modification date of the directory.
+	 * @return The sorted names or <code>null</code> if the directory is
+	 *         unknown, has been modified since it was read, or was modified
+	 *         too shortly before it was read to trust the listing.
+	 */
+	String[] lookup(File dir, long lastModified) {
+		Entry recorded = (Entry) previous.get(dir.getAbsolutePath());
+
+		if (recorded == null || recorded.lastModified != lastModified
+				|| recorded.listed - recorded.lastModified < GRANULARITY) {
+			return null;
+		}
+		return recorded.names;
+	}
+
+	/**
+	 * Records the listing of a directory for the cache written by
+	 * <code>save()</code>.
+	 *
+	 * @param dir
+	 *            The directory.
+	 * @param lastModified
+	 *            The modification date of the directory read before it was
+	 *            listed.
+	 * @param listed
+	 *            The time the directory was listed.
+	 * @param names
+	 *            The sorted names of the entries.
+	 */
+	void record(File dir, long lastModified, long listed, String[] names) {
+		current.put(dir.getAbsolutePath(), new Entry(lastModified, listed, names));
+	}
+
+	/**
+	 * Records a listing taken from the cache unchanged.
+	 *
+	 * @param dir
+	 *            The directory.
+	 */
+	void keep(File dir) {
+		Entry recorded = (Entry) previous.get(dir.getAbsolutePath());
+		if (recorded != null) {
+			current.put(dir.getAbsolutePath(), recorded);
+		}
+	}
+
+	/**
+	 * Writes the recorded listings to the cache file. The listings are
+	 * written to a temporary file first, which then replaces the cache file.
+	 *
+	 * @throws IOException
+	 */
+	void save() throws IOException {
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(fos));
+
+			// take a consistent copy (listings may still be recorded)
+			Map entries = new HashMap(current);
+
+			out.writeUTF(MAGIC);
+			out.writeUTF(src.getAbsolutePath());
+			out.writeInt(entries.size());
+			for (Iterator iter = entries.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry e = (Map.Entry) iter.next();
+				Entry entry = (Entry) e.getValue();
+
+				out.writeUTF((String) e.getKey());
+				out.writeLong(entry.lastModified);
+				out.writeLong(entry.listed);
+				out.writeInt(entry.names.length);
+				for (int i = 0; i < entry.names.length; i++) {
+					out.writeUTF(entry.names[i]);
+				}
+			}
+			out.writeInt(entries.size());
+			out.flush();
+
+			// the data must be on disk before the old cache is replaced
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the cache file, so that the next run reads every directory.
+	 */
+	void delete() {
+		file.delete();
+	}
+}
@@ -22,16 +22,36 @@
 package dirsync.directory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 import dirsync.Const;
 import dirsync.DirSync;
-import dirsync.tools.FileTools;
 import dirsync.tools.Log;
+import dirsync.tools.PatternMatcher;
 
 /**
  * Lists the contents of a directory. Has methods to count how many files and
  * directories are in a given directory and to list these files and dirctories
  * (recursive, non recursive).
+ * <p>
+ * The directory is read once (with the attributes of every entry) and the
+ * listing is kept, so that listing the files and the directories of the same
+ * directory doesn't read it twice and no further file system calls are needed
+ * to query the type, size, or modification date of an entry.
  * 
  * @author E. Gerber , F. Gerbig (fgerbig@users.sourceforge.net)
  */
@@ -40,6 +60,9 @@ public class DirectoryLister {
 	//	The directory to list
 	private final File dir;
 
+	// the entries of the directory (read on first use)
+	private FileEntry[] entries;
+
 	// counter for recursive file counting
 	private int count;
 
@@ -47,6 +70,9 @@ public class DirectoryLister {
 	
 	boolean skipLinks;
 
+	// the listings of the last run (null if not used)
+	private DirectoryCache cache;
+
 	/**
 	 * Initializes a new DirectoryLister
 	 * 
@@ -63,33 +89,25 @@ public class DirectoryLister {
 		this.skipLinks = skipLinks;
 	}
 
+	/**
+	 * Sets the directory cache: if the directory hasn't been modified since
+	 * the last run, the names of its entries are taken from the cache instead
+	 * of reading the directory.
+	 * 
+	 * @param cache
+	 *            The directory cache or <code>null</code>.
+	 */
+	void setCache(DirectoryCache cache) {
+		this.cache = cache;
+	}
+
 	/**
 	 * Lists only files (no directories).
 	 * 
 	 * @return File[] The files.
 	 */
 	public File[] listFiles() {
-		// get all files and dirs in this directory
-		File[] filesAndDirs = listFiles(dir);
-
-		// count number of files
-		int count = 0;
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			if (filesAndDirs[i].isFile()) {
-				count++;
-			}
-		}
-
-		// copy all files to a new array
-		File[] files = new File[count];
-		count = 0;
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			if (filesAndDirs[i].isFile()) {
-				files[count] = filesAndDirs[i];
-				count++;
-			}
-		}
-		return files;
+		return FileEntry.toFiles(listFileEntries());
 	}
 
 	/**
@@ -98,28 +116,7 @@ public class DirectoryLister {
 	 * @return File[] The directories.
 	 */
 	public File[] listDirectories() {
-		// get all files and dirs in this directory
-		File[] filesAndDirs = listFiles(dir);
-
-		// count number of directories
-		int count = 0;
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			if (filesAndDirs[i].isDirectory()) {
-				count++;
-			}
-		}
-
-		// copy all dirs to a new array
-		File[] dirs = new File[count];
-		count = 0;
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			if (filesAndDirs[i].isDirectory()) {
-				dirs[count] = filesAndDirs[i];
-				count++;
-			}
-		}
-
-		return dirs;
+		return FileEntry.toFiles(listDirectoryEntries());
 	}
 
 	/**
@@ -135,75 +132,11 @@ public class DirectoryLister {
 	 * 
 	 * @return File[] The files.
 	 */
-	public File[] listFiles(String[] includes, String[] excludes,
+	public File[] listFiles(PatternMatcher includes, PatternMatcher excludes,
 			boolean printExcluded) {
-
-		boolean includeFile = false;
-		File[] filesAndDirs = listFiles(dir);
-
-		int count = 0;
-
-		// count files
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			includeFile = false;
-
-			// check if file should be included
-			if (filesAndDirs[i].isFile()) {
-
-				// check includes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], includes)) {
-					includeFile = true;
-				}
-
-				// check excludes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], excludes)) {
-					includeFile = false;
-				}
-			}
-
-			// count files to include
-			if (includeFile) {
-				count++;
-			}
-		}
-
-		// get files
-		File[] files = new File[count];
-		count = 0;
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			includeFile = false;
-
-			// check if file should be included
-			if (filesAndDirs[i].isFile()) {
-
-				// check includes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], includes)) {
-					includeFile = true;
-				}
-				
-				// check excludes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], excludes)) {
-					includeFile = false;
-
-					if (printExcluded) {
-						log.print("    (Exclude File)", Const.STYLE_INFO);
-						log.print("       '"
-								+ filesAndDirs[i].getAbsolutePath() + "'");
-						log.print("");
-					}
-				}
-			}
-
-			// get files to include
-			if (includeFile) {
-				files[count] = filesAndDirs[i];
-				count++;
-			}
-		}
-
-		return files;
+		return FileEntry.toFiles(listFileEntries(includes, excludes, printExcluded));
 	}
-	
+
 	/**
 	 * Lists all directories (no files) that match the include and don't match
 	 * the exclude patterns.
@@ -217,73 +150,131 @@ public class DirectoryLister {
 	 * 
 	 * @return File[] The files.
 	 */
-	public File[] listDirectories(String[] includes, String[] excludes,
+	public File[] listDirectories(PatternMatcher includes, PatternMatcher excludes,
 			boolean printExcluded) {
+		return FileEntry.toFiles(listDirectoryEntries(includes, excludes, printExcluded));
+	}
 
-		boolean includeDirectory = false;
-		File[] filesAndDirs = listFiles(dir);
+	/**
+	 * Lists only files (no directories) with their attributes.
+	 * 
+	 * @return FileEntry[] The files.
+	 */
+	public FileEntry[] listFileEntries() {
+		return listEntries(true, null, null, false);
+	}
 
-		int count = 0;
+	/**
+	 * Lists only directories (no files) with their attributes.
+	 * 
+	 * @return FileEntry[] The directories.
+	 */
+	public FileEntry[] listDirectoryEntries() {
+		return listEntries(false, null, null, false);
+	}
 
-		// count files
-		for (int i = 0; i < filesAndDirs.length; i++) {
-			includeDirectory = false;
+	/**
+	 * Lists all files (no directories) with their attributes that match the
+	 * include and don't match the exclude patterns.
+	 * 
+	 * @param includes
+	 *            The patterns to include.
+	 * @param excludes
+	 *            The patterns to exclude.
+	 * @param printExcluded
+	 *            If set to <code>true</code> excluded files are printed.
+	 * 
+	 * @return FileEntry[] The files.
+	 */
+	public FileEntry[] listFileEntries(PatternMatcher includes, PatternMatcher excludes,
+			boolean printExcluded) {
+		return listEntries(true, includes, excludes, printExcluded);
+	}
 
-			// check if file should be included
-			if (filesAndDirs[i].isDirectory()) {
+	/**
+	 * Lists all directories (no files) with their attributes that match the
+	 * include and don't match the exclude patterns.
+	 * 
+	 * @param includes
+	 *            The patterns to include.
+	 * @param excludes
+	 *            The patterns to exclude.
+	 * @param printExcluded
+	 *            If set to <code>true</code> excluded directories are printed.
+	 * 
+	 * @return FileEntry[] The directories.
+	 */
+	public FileEntry[] listDirectoryEntries(PatternMatcher includes, PatternMatcher excludes,
+			boolean printExcluded) {
+		return listEntries(false, includes, excludes, printExcluded);
+	}
 
-				// check includes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], includes)) {
-					includeDirectory = true; 
-				}
+	/**
+	 * Lists all entries (files and directories) with their attributes, sorted
+	 * by name (see <code>FileEntry.NAME_ORDER</code>).
+	 * 
+	 * @return FileEntry[] The entries; empty if the directory doesn't exist.
+	 */
+	public FileEntry[] listSortedEntries() {
+		FileEntry[] sorted = listEntries().clone();
+		Arrays.sort(sorted, FileEntry.NAME_ORDER);
+		return sorted;
+	}
 
-				// check excludes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], excludes)) {
-					includeDirectory = false; 
-				}
-			}
+	/**
+	 * Lists the files or the directories that match the include and don't
+	 * match the exclude patterns.
+	 * 
+	 * @param files
+	 *            <code>true</code> to list the files, <code>false</code> to
+	 *            list the directories.
+	 * @param includes
+	 *            The patterns to include (<code>null</code> to include all).
+	 * @param excludes
+	 *            The patterns to exclude (<code>null</code> to exclude none).
+	 * @param printExcluded
+	 *            If set to <code>true</code> excluded entries are printed.
+	 * @return FileEntry[] The files or directories.
+	 */
+	private FileEntry[] listEntries(boolean files, PatternMatcher includes,
+			PatternMatcher excludes, boolean printExcluded) {
 
-			// count files to include
-			if (includeDirectory) {
-				count++;
-			}
-		}
+		FileEntry[] filesAndDirs = listEntries();
+		List list = new ArrayList(filesAndDirs.length);
 
-		// get files
-		File[] directories = new File[count];
-		count = 0;
 		for (int i = 0; i < filesAndDirs.length; i++) {
-			includeDirectory = false;
-
-			// check if file should be included
-			if (filesAndDirs[i].isDirectory()) {
+			FileEntry entry = filesAndDirs[i];
 
-				// check includes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], includes)) {
-					includeDirectory = true; 
-				}
-
-				// check excludes
-				if (FileTools.checkFileMatchesPatterns(filesAndDirs[i], excludes)) {
-					includeDirectory = false; 
+			// check type
+			if (files ? !entry.isFile() : !entry.isDirectory()) {
+				continue;
+			}
 
-					if (printExcluded) {
-						log.print("    (Exclude Directory)", Const.STYLE_INFO);
+			// check excludes
+			if (excludes != null
+					&& excludes.matches(entry.getName())) {
+				if (printExcluded && log.isLogged(Log.DETAIL)) {
+					// keep the lines together (copy workers print, too)
+					synchronized (log) {
+						log.print(files ? "    (Exclude File)" : "    (Exclude Directory)", Const.STYLE_INFO);
 						log.print("       '"
-								+ filesAndDirs[i].getAbsolutePath() + "'");
+								+ entry.getFile().getAbsolutePath() + "'");
 						log.print("");
 					}
 				}
+				continue;
 			}
 
-			// get directories to include
-			if (includeDirectory) {
-				directories[count] = filesAndDirs[i];
-				count++;
+			// check includes
+			if (includes != null
+					&& !includes.matches(entry.getName())) {
+				continue;
 			}
+
+			list.add(entry);
 		}
 
-		return directories;
+		return (FileEntry[]) list.toArray(new FileEntry[list.size()]);
 	}
 	
 	/**
@@ -318,7 +309,7 @@ public class DirectoryLister {
 		if (recursive) {
 			countFilesRecursive(dir);
 		} else {
-			File[] filesAndDirs = listFiles(dir);
+			FileEntry[] filesAndDirs = listEntries();
 
 			// count number of files (not directories)
 			for (int i = 0; i < filesAndDirs.length; i++) {
@@ -335,25 +326,38 @@ public class DirectoryLister {
 		return count;
 	}
 
-	private void countFilesRecursive(File dir) {
-		DirSync.getSync().sleepOnPause();
-		if (DirSync.getSync().isStopping()) {
-			return;
-		}
+	private void countFilesRecursive(final File dir) {
+		// the file tree walker reads the attributes of every entry once;
+		// links are followed (and loops detected) unless links are skipped
+		Set options = skipLinks ? EnumSet.noneOf(FileVisitOption.class)
+				: EnumSet.of(FileVisitOption.FOLLOW_LINKS);
 
-		// Die eigentliche Methode zum Rekursiv zaehlen: Fuehrt sich selber wieder
-		// aus, falls ein Element eine dir ist.
 		try {
-			File[] filesAndDirs = listFiles(dir);
-
-			for (int i = 0; i < filesAndDirs.length; i++) {
-				if (filesAndDirs[i].isDirectory()) {
-					countFilesRecursive(filesAndDirs[i]);
-					// check recursively for files
-				} else {
-					count++; // count as file
-				}
-			}
+			Files.walkFileTree(dir.toPath(), options, Integer.MAX_VALUE,
+					new SimpleFileVisitor<Path>() {
+						public FileVisitResult preVisitDirectory(Path path,
+								BasicFileAttributes attributes) {
+							DirSync.getSync().sleepOnPause();
+							if (DirSync.getSync().isStopping()) {
+								return FileVisitResult.TERMINATE;
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						public FileVisitResult visitFile(Path path,
+								BasicFileAttributes attributes) {
+							if (!(skipLinks && attributes.isSymbolicLink())) {
+								count++; // count as file
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						public FileVisitResult visitFileFailed(Path path,
+								IOException e) {
+							// unreadable entries are skipped
+							return FileVisitResult.CONTINUE;
+						}
+					});
 		} catch (Exception e) {
 			log
 					.print("Error in DirectoryLister.countRecursive() while listing '"
@@ -361,17 +365,128 @@ public class DirectoryLister {
 		}
 	}
 
-	private File[] listFiles(File dir) {
-		File[] filesAndDirs = dir.listFiles();
+	private FileEntry[] listEntries() {
+		if (entries == null) {
+			entries = listEntries(dir);
+		}
+		return entries;
+	}
+
+	private FileEntry[] listEntries(File dir) {
+		long lastModified = 0;
+		if (cache != null) {
+			lastModified = dir.lastModified();
+			FileEntry[] cached = listCachedEntries(dir, lastModified);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		List list = new ArrayList();
+		List names = (cache != null) ? new ArrayList() : null;
+		long listed = System.currentTimeMillis();
+		DirectoryStream<Path> stream = null;
+
+		try {
+			stream = Files.newDirectoryStream(dir.toPath());
+			for (Path path : stream) {
+				if (names != null) {
+					names.add(path.getFileName().toString());
+				}
+				FileEntry entry = readEntry(path);
+				if (entry != null) {
+					list.add(entry);
+				}
+			}
+
+			// remember the listing for the next run
+			if (names != null && lastModified != 0) {
+				String[] sorted = (String[]) names.toArray(new String[names.size()]);
+				Arrays.sort(sorted);
+				cache.record(dir, lastModified, listed, sorted);
+			}
+		} catch (IOException e) {
+			// like File.listFiles(): a directory that can't be read is empty
+		} catch (DirectoryIteratorException e) {
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return (FileEntry[]) list.toArray(new FileEntry[list.size()]);
+	}
+
+	/**
+	 * Lists the entries of a directory by the names recorded in the
+	 * directory cache; only the entries are read, not the directory.
+	 * 
+	 * @param dir
+	 *            The directory.
+	 * @param lastModified
+	 *            The modification date of the directory.
+	 * @return FileEntry[] The entries or <code>null</code> if the directory
+	 *         must be read (not cached, modified, or an entry vanished).
+	 */
+	private FileEntry[] listCachedEntries(File dir, long lastModified) {
+		String[] names = cache.lookup(dir, lastModified);
+		if (names == null) {
+			return null;
+		}
 
-		if (filesAndDirs == null) {
-			filesAndDirs = new File[0];
+		List list = new ArrayList(names.length);
+		Path base = dir.toPath();
+		for (int i = 0; i < names.length; i++) {
+			Path path = base.resolve(names[i]);
+			FileEntry entry = readEntry(path);
+			if (entry != null) {
+				list.add(entry);
+			} else if (!(skipLinks && Files.isSymbolicLink(path))) {
+				// the directory has changed after all
+				return null;
+			}
+		}
+
+		cache.keep(dir);
+		return (FileEntry[]) list.toArray(new FileEntry[list.size()]);
+	}
+
+	/**
+	 * Reads the attributes of the given path. Only symbolic links cost a
+	 * second call to read the attributes of their target.
+	 * 
+	 * @param path
+	 *            The path to read.
+	 * @return FileEntry The entry or <code>null</code> if the entry vanished
+	 *         or is a link and links are skipped.
+	 */
+	private FileEntry readEntry(Path path) {
+		BasicFileAttributes attributes;
+
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			return null;
+		}
+
+		if (!attributes.isSymbolicLink()) {
+			return new FileEntry(path.toFile(), attributes, false);
 		}
 
 		if (skipLinks) { // remove links if required
-			filesAndDirs = FileTools.removeLinks(filesAndDirs);
+			return null;
 		}
 
-		return filesAndDirs;
+		try {
+			return new FileEntry(path.toFile(), Files.readAttributes(path,
+					BasicFileAttributes.class), true);
+		} catch (IOException e) {
+			// broken link: neither a file nor a directory
+			return new FileEntry(path.toFile(), attributes, true);
+		}
 	}
 }
\ No newline at end of file
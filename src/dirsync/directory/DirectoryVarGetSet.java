@@ -21,8 +21,10 @@
 package dirsync.directory;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import dirsync.tools.FileTools;
+import dirsync.sync.Sync;
+import dirsync.tools.PatternMatcher;
 import dirsync.tools.Log;
 
 /**
@@ -42,6 +44,15 @@ public abstract class DirectoryVarGetSet {
 
 	protected String logfile = "";
 
+	// level of the log ("" for dirsync.log.level)
+	protected String logLevel = "";
+
+	// file of the snapshot index ("" if no index is used)
+	protected String indexfile = "";
+
+	// file of the destination manifest ("" if no manifest is used)
+	protected String manifestfile = "";
+
 	// source and destination directories
 	protected String src = "";
 
@@ -54,26 +65,29 @@ public abstract class DirectoryVarGetSet {
 	// In- an fileExclude pattern for files
 	protected String fileInclude = "*";
 
-	protected String[] fileIncludes;
+	protected PatternMatcher fileIncludes = new PatternMatcher(fileInclude);
 
 	protected String fileExclude = "";
 
-	protected String[] fileExcludes;
+	protected PatternMatcher fileExcludes = new PatternMatcher(fileExclude);
 
 	// In- an fileExclude pattern for directories
 	protected String dirInclude = "*";
 
-	protected String[] dirIncludes;
+	protected PatternMatcher dirIncludes = new PatternMatcher(dirInclude);
 
 	protected String dirExclude = "";
 
-	protected String[] dirExcludes;
+	protected PatternMatcher dirExcludes = new PatternMatcher(dirExclude);
 
 	// copy options
 	protected boolean withSubfolders = false;
 
 	protected boolean verify = false;
 
+	// update modified files in place (only the blocks that differ)
+	protected boolean deltaCopy = false;
+
 	protected boolean copyAll = false;
 
 	protected boolean copyNew = false;
@@ -88,22 +102,27 @@ public abstract class DirectoryVarGetSet {
 
 	protected boolean deleteFiles = false;
 
-	// counters
-	protected int count = 0;
+	// the error state of this directory (see Sync)
+	protected volatile int error = Sync.NOERROR;
 
-	protected int countCopyAll = 0;
+	// counters (incremented by the copy workers, too)
+	protected final AtomicInteger count = new AtomicInteger();
 
-	protected int countCopyNew = 0;
+	protected volatile int countTotal = 0;
 
-	protected int countCopyLarger = 0;
+	protected final AtomicInteger countCopyAll = new AtomicInteger();
 
-	protected int countCopyModified = 0;
+	protected final AtomicInteger countCopyNew = new AtomicInteger();
 
-	protected int countCopyLargerModified = 0;
+	protected final AtomicInteger countCopyLarger = new AtomicInteger();
 
-	protected int countDeleteDirs = 0;
+	protected final AtomicInteger countCopyModified = new AtomicInteger();
 
-	protected int countDeleteFiles = 0;
+	protected final AtomicInteger countCopyLargerModified = new AtomicInteger();
+
+	protected final AtomicInteger countDeleteDirs = new AtomicInteger();
+
+	protected final AtomicInteger countDeleteFiles = new AtomicInteger();
 
 	/**
 	 * Returns which directory patterns are excluded in the dirsync.
@@ -150,6 +169,27 @@ public abstract class DirectoryVarGetSet {
 		return fileInclude;
 	}
 
+	/**
+	 * Returns the error state of the last synchronization of this directory.
+	 * 
+	 * @return The error state (see <code>Sync</code>).
+	 */
+	public int getError() {
+		return error;
+	}
+
+	/**
+	 * Returns the progress of the running synchronization of this directory.
+	 * 
+	 * @return The progress from 0 to 100.
+	 */
+	public int getProgress() {
+		if (countTotal <= 0) {
+			return 0;
+		}
+		return (int) Math.min(100, (100L * count.get()) / countTotal);
+	}
+
 	/**
 	 * Returns the file where to log what's being done.
 	 * 
@@ -159,6 +199,34 @@ public abstract class DirectoryVarGetSet {
 		return logfile;
 	}
 
+	/**
+	 * Returns the file where the snapshot index of the directory is kept.
+	 * 
+	 * @return The index file ("" if no index is used).
+	 */
+	public String getIndexfile() {
+		return indexfile;
+	}
+
+	/**
+	 * Returns the file where the manifest of the destination directory is
+	 * kept.
+	 * 
+	 * @return The manifest file ("" if no manifest is used).
+	 */
+	public String getManifestfile() {
+		return manifestfile;
+	}
+
+	/**
+	 * Returns the level of the log of the directory.
+	 * 
+	 * @return The name of the level ("" if the global level is used).
+	 */
+	public String getLogLevel() {
+		return logLevel;
+	}
+
 	/**
 	 * Returns the name of the dirsync action.
 	 * 
@@ -291,6 +359,16 @@ public abstract class DirectoryVarGetSet {
 		return deleteFiles;
 	}
 
+	/**
+	 * Returns if existing destination files are updated in place, writing
+	 * only the blocks that differ from the source file.
+	 * 
+	 * @return <code>true</code> if delta copy is enabled.
+	 */
+	public boolean isDeltaCopy() {
+		return deltaCopy;
+	}
+
 	/**
 	 * Determines whether this directory is enabled.
 	 * 
@@ -396,6 +474,17 @@ public abstract class DirectoryVarGetSet {
 		this.deleteFiles = delFiles;
 	}
 
+	/**
+	 * Sets whether existing destination files are updated in place, writing
+	 * only the blocks that differ from the source file.
+	 * 
+	 * @param deltaCopy
+	 *            Set to <code>true</code> to enable delta copy.
+	 */
+	public void setDeltaCopy(boolean deltaCopy) {
+		this.deltaCopy = deltaCopy;
+	}
+
 	/**
 	 * Sets which directory patterns are excluded in the dirsync.
 	 * 
@@ -404,7 +493,7 @@ public abstract class DirectoryVarGetSet {
 	 */
 	public void setDirExclude(String pattern) {
 		this.dirExclude = pattern;
-		this.dirExcludes = FileTools.tokenizePattern(pattern);
+		this.dirExcludes = new PatternMatcher(pattern);
 	}
 
 	/**
@@ -415,7 +504,7 @@ public abstract class DirectoryVarGetSet {
 	 */
 	public void setDirInclude(String pattern) {
 		this.dirInclude = pattern;
-		this.dirIncludes = FileTools.tokenizePattern(pattern);
+		this.dirIncludes = new PatternMatcher(pattern);
 	}
 
 	/**
@@ -428,6 +517,16 @@ public abstract class DirectoryVarGetSet {
 		this.dst = dst;
 	}
 
+	/**
+	 * Sets the error state of this directory.
+	 * 
+	 * @param error
+	 *            The error state (see <code>Sync</code>).
+	 */
+	public void setError(int error) {
+		this.error = error;
+	}
+
 	/**
 	 * Enables or disables this directory, depending on the value of the
 	 * parameter enabled.
@@ -448,7 +547,7 @@ public abstract class DirectoryVarGetSet {
 	 */
 	public void setFileExclude(String pattern) {
 		this.fileExclude = pattern;
-		this.fileExcludes = FileTools.tokenizePattern(pattern);
+		this.fileExcludes = new PatternMatcher(pattern);
 	}
 
 	/**
@@ -459,7 +558,7 @@ public abstract class DirectoryVarGetSet {
 	 */
 	public void setFileInclude(String pattern) {
 		this.fileInclude = pattern;
-		this.fileIncludes = FileTools.tokenizePattern(pattern);
+		this.fileIncludes = new PatternMatcher(pattern);
 	}
 
 	/**
@@ -473,6 +572,41 @@ public abstract class DirectoryVarGetSet {
 		this.logfile = logfile;
 	}
 
+	/**
+	 * Sets the file where the snapshot index of the directory is kept. If an
+	 * empty <code>String</code>"" is specified, no index is used.
+	 * 
+	 * @param indexfile
+	 *            The index file.
+	 */
+	public void setIndexfile(String indexfile) {
+		this.indexfile = indexfile;
+	}
+
+	/**
+	 * Sets the file where the manifest of the destination directory is kept.
+	 * If an empty <code>String</code>"" is specified, no manifest is used and
+	 * the destination is read while synchronizing.
+	 * 
+	 * @param manifestfile
+	 *            The manifest file.
+	 */
+	public void setManifestfile(String manifestfile) {
+		this.manifestfile = manifestfile;
+	}
+
+	/**
+	 * Sets the level of the log of the directory: "summary", "action",
+	 * "detail" or "debug". If an empty <code>String</code>"" is specified,
+	 * the level of <code>dirsync.log.level</code> is used.
+	 * 
+	 * @param logLevel
+	 *            The name of the level.
+	 */
+	public void setLogLevel(String logLevel) {
+		this.logLevel = logLevel;
+	}
+
 	/**
 	 * Sets the name of the dirsync action.
 	 * 
@@ -0,0 +1,229 @@
+/*
+ * FileEntry.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.directory;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+
+import dirsync.Const;
+
+/**
+ * Represents an entry of a directory listing: the file and its attributes
+ * (type, size, and modification date) as read once by the
+ * <code>DirectoryLister</code>, so that no further file system calls are
+ * needed to query them.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class FileEntry {
+
+	/**
+	 * Orders entries by name; case insensitive under MS Windows (like the
+	 * file system).
+	 */
+	public static final Comparator NAME_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return compareNames(((FileEntry) o1).getName(), ((FileEntry) o2).getName());
+		}
+	};
+
+	private final File file;
+
+	private final boolean directory;
+
+	private final boolean regularFile;
+
+	private final boolean link;
+
+	private final long length;
+
+	private final long lastModified;
+
+	private final Object fileKey;
+
+	/**
+	 * Initializes a new FileEntry.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param attributes
+	 *            The attributes of the file (symbolic links followed).
+	 * @param link
+	 *            <code>true</code> if the file is a symbolic link.
+	 */
+	public FileEntry(File file, BasicFileAttributes attributes, boolean link) {
+		this.file = file;
+		this.directory = attributes.isDirectory();
+		this.regularFile = attributes.isRegularFile();
+		this.link = link;
+		this.length = attributes.size();
+		this.lastModified = attributes.lastModifiedTime().toMillis();
+		this.fileKey = attributes.fileKey();
+	}
+
+	/**
+	 * Initializes a new FileEntry from recorded attributes (see
+	 * {@link DestinationManifest}).
+	 *
+	 * @param file
+	 *            The file.
+	 * @param directory
+	 *            <code>true</code> if the file is a directory,
+	 *            <code>false</code> if it is a normal file.
+	 * @param length
+	 *            The size of the file.
+	 * @param lastModified
+	 *            The modification date of the file.
+	 */
+	FileEntry(File file, boolean directory, long length, long lastModified) {
+		this.file = file;
+		this.directory = directory;
+		this.regularFile = !directory;
+		this.link = false;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.fileKey = null;
+	}
+
+	/**
+	 * Converts the given entries to files.
+	 *
+	 * @param entries
+	 *            The entries.
+	 * @return File[] The files of the entries.
+	 */
+	public static File[] toFiles(FileEntry[] entries) {
+		File[] files = new File[entries.length];
+
+		for (int i = 0; i < entries.length; i++) {
+			files[i] = entries[i].getFile();
+		}
+		return files;
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the name of the file.
+	 *
+	 * @return The name of the file.
+	 */
+	public String getName() {
+		return file.getName();
+	}
+
+	/**
+	 * Checks whether the entry is a directory.
+	 *
+	 * @return <code>true</code> if the entry is a directory.
+	 */
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Checks whether the entry is a normal file (see
+	 * <code>File.isFile()</code>).
+	 *
+	 * @return <code>true</code> if the entry is a file.
+	 */
+	public boolean isFile() {
+		return regularFile;
+	}
+
+	/**
+	 * Checks whether the entry is a symbolic link.
+	 *
+	 * @return <code>true</code> if the entry is a symbolic link.
+	 */
+	public boolean isLink() {
+		return link;
+	}
+
+	/**
+	 * Gets the length of the file.
+	 *
+	 * @return The length of the file in bytes.
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Gets the modification date of the file.
+	 *
+	 * @return The modification date of the file in milliseconds.
+	 */
+	public long lastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Checks whether the entry exists when symbolic links are followed (a
+	 * broken link doesn't).
+	 *
+	 * @return <code>true</code> if the entry exists.
+	 */
+	public boolean exists() {
+		return !link || directory || regularFile;
+	}
+
+	/**
+	 * Compares two file names in the order of <code>NAME_ORDER</code>.
+	 *
+	 * @param a
+	 *            The first name.
+	 * @param b
+	 *            The second name.
+	 * @return A negative number, zero, or a positive number if the first
+	 *         name is less than, equal to, or greater than the second.
+	 */
+	public static int compareNames(String a, String b) {
+		return Const.runningUnderWindows ? a.compareToIgnoreCase(b) : a.compareTo(b);
+	}
+
+	/**
+	 * Gets the key uniquely identifying the file (e.g. device and inode), if
+	 * the file system provides one.
+	 *
+	 * @return The file key or <code>null</code>.
+	 */
+	public Object getFileKey() {
+		return fileKey;
+	}
+
+	/**
+	 * Returns the path of the file.
+	 *
+	 * @return The path of the file.
+	 */
+	public String toString() {
+		return file.getPath();
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * SnapshotIndex.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.directory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The snapshot of a synchronized directory written at the end of a
+ * successful run: for every source file its size, modification date, and file
+ * key together with the size and modification date of the destination file.
+ * On the next run the destination state of a source file that is unchanged
+ * since the snapshot is taken from the index instead of reading it from the
+ * file system.
+ * <p>
+ * The index is written to a temporary file which replaces the old index only
+ * when it is complete, so a crash never leaves a damaged index behind. An
+ * index that is missing, unreadable, or was written for other source or
+ * destination paths is ignored and the destination is checked file by file.
+ * Changes made to the destination by other programs are not noticed while an
+ * index is used; delete the index file to force a full check.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class SnapshotIndex {
+
+	// identifies the file format
+	private static final String MAGIC = "DirSync snapshot index 1";
+
+	private final File file;
+
+	private final File src;
+
+	private final File dst;
+
+	// the entries read from the index file (empty if missing or stale)
+	private Map previous = new HashMap();
+
+	// the entries of the running synchronization (copy workers record, too)
+	private final Map current = new ConcurrentHashMap();
+
+	/**
+	 * The recorded state of a source file and its destination file.
+	 */
+	static class Entry {
+
+		final long srcLength;
+
+		final long srcLastModified;
+
+		final String srcKey;
+
+		final boolean dstExists;
+
+		final long dstLength;
+
+		final long dstLastModified;
+
+		Entry(long srcLength, long srcLastModified, String srcKey,
+				boolean dstExists, long dstLength, long dstLastModified) {
+			this.srcLength = srcLength;
+			this.srcLastModified = srcLastModified;
+			this.srcKey = srcKey;
+			this.dstExists = dstExists;
+			this.dstLength = dstLength;
+			this.dstLastModified = dstLastModified;
+		}
+	}
+
+	/**
+	 * Initializes a new SnapshotIndex.
+	 *
+	 * @param file
+	 *            The index file.
+	 * @param src
+	 *            The source directory.
+	 * @param dst
+	 *            The destination directory.
+	 */
+	SnapshotIndex(File file, File src, File dst) {
+		this.file = file;
+		this.src = src;
+		this.dst = dst;
+	}
+
+	/**
+	 * Reads the index file.
+	 *
+	 * @return <code>true</code> if the index has been read,
+	 *         <code>false</code> if it is missing or stale.
+	 */
+	boolean load() {
+		previous = new HashMap();
+
+		if (!file.isFile()) {
+			return false;
+		}
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+
+			if (!in.readUTF().equals(MAGIC)
+					|| !in.readUTF().equals(src.getAbsolutePath())
+					|| !in.readUTF().equals(dst.getAbsolutePath())) {
+				return false;
+			}
+
+			Map entries = new HashMap();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String path = in.readUTF();
+				entries.put(path, new Entry(in.readLong(), in.readLong(), in
+						.readUTF(), in.readBoolean(), in.readLong(), in
+						.readLong()));
+			}
+
+			// the number of entries is repeated at the end
+			if (in.readInt() != n) {
+				return false;
+			}
+
+			previous = entries;
+			return true;
+		} catch (EOFException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries read from the index file.
+	 *
+	 * @return The number of entries.
+	 */
+	int size() {
+		return previous.size();
+	}
+
+	/**
+	 * Looks up the recorded state of the destination of the given source
+	 * file.
+	 *
+	 * @param path
+	 *            The path of the source file relative to the source directory.
+	 * @param entry
+	 *            The source file.
+	 * @return The recorded entry or <code>null</code> if the source file is
+	 *         unknown or has been changed since the index was written.
+	 */
+	Entry lookup(String path, FileEntry entry) {
+		Entry recorded = (Entry) previous.get(path);
+
+		if (recorded == null || recorded.srcLength != entry.length()
+				|| recorded.srcLastModified != entry.lastModified()
+				|| !recorded.srcKey.equals(key(entry))) {
+			return null;
+		}
+		return recorded;
+	}
+
+	/**
+	 * Records the state of a source file and its destination file for the
+	 * index written by <code>save()</code>.
+	 *
+	 * @param path
+	 *            The path of the source file relative to the source directory.
+	 * @param entry
+	 *            The source file.
+	 * @param srcLastModified
+	 *            The modification date of the source file.
+	 * @param dstExists
+	 *            <code>true</code> if the destination file exists.
+	 * @param dstLength
+	 *            The size of the destination file.
+	 * @param dstLastModified
+	 *            The modification date of the destination file.
+	 */
+	void record(String path, FileEntry entry, long srcLastModified,
+			boolean dstExists, long dstLength, long dstLastModified) {
+		current.put(path, new Entry(entry.length(), srcLastModified,
+				key(entry), dstExists, dstLength, dstLastModified));
+	}
+
+	/**
+	 * Writes the recorded entries to the index file. The entries are written
+	 * to a temporary file first, which then replaces the index file.
+	 *
+	 * @throws IOException
+	 */
+	void save() throws IOException {
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(fos));
+
+			out.writeUTF(MAGIC);
+			out.writeUTF(src.getAbsolutePath());
+			out.writeUTF(dst.getAbsolutePath());
+			out.writeInt(current.size());
+			for (Iterator iter = current.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry e = (Map.Entry) iter.next();
+				Entry entry = (Entry) e.getValue();
+
+				out.writeUTF((String) e.getKey());
+				out.writeLong(entry.srcLength);
+				out.writeLong(entry.srcLastModified);
+				out.writeUTF(entry.srcKey);
+				out.writeBoolean(entry.dstExists);
+				out.writeLong(entry.dstLength);
+				out.writeLong(entry.dstLastModified);
+			}
+			out.writeInt(current.size());
+			out.flush();
+
+			// the data must be on disk before the old index is replaced
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the index file, so that the next run checks every file.
+	 */
+	void delete() {
+		file.delete();
+	}
+
+	private static String key(FileEntry entry) {
+		return (entry.getFileKey() != null) ? entry.getFileKey().toString()
+				: "";
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * TreeScanner.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.directory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dirsync.DirSync;
+import dirsync.tools.Log;
+
+/**
+ * Reads the directories of a source tree in parallel with a fork/join pool
+ * of <code>dirsync.scan.threads</code> threads: every subdirectory is a task
+ * of its own, so idle threads steal the subdirectories of large branches
+ * and unbalanced trees keep all threads busy.
+ * <p>
+ * The scanner only reads ahead; the directories are still synchronized one
+ * after another in the depth-first order of a single thread, which waits
+ * for the listing of the next directory if it isn't read yet. So the
+ * actions and the log are the same as without a scanner. At most
+ * <code>dirsync.scan.lookahead</code> directories are read ahead; the
+ * remaining subdirectories are read when the synchronization gets there.
+ * The tasks sleep while the synchronization is paused and end when it is
+ * stopped.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class TreeScanner {
+
+	private final Directory directory;
+
+	private final ForkJoinPool pool;
+
+	private final int lookahead;
+
+	// the number of directories read (or being read) ahead and not yet
+	// synchronized
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * A directory of the tree: read by a task of the scanner, synchronized by
+	 * the walk of the tree.
+	 */
+	class Node extends RecursiveAction {
+
+		private final File dir;
+
+		private final boolean recursive;
+
+		// set by the first to start reading the directory
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private DirectoryLister lister;
+
+		private FileEntry[] dstEntries;
+
+		private Node[] children;
+
+		Node(File dir, boolean recursive) {
+			this.dir = dir;
+			this.recursive = recursive;
+		}
+
+		/**
+		 * Reads the directory (and the destination directory) and starts
+		 * reading the subdirectories unless enough directories are read
+		 * ahead.
+		 */
+		protected void compute() {
+			DirSync.getSync().sleepOnPause();
+			if (DirSync.getSync().isStopping()) {
+				return;
+			}
+
+			DirectoryLister srcLister = directory.newSourceLister(dir);
+			FileEntry[] dirs = directory.scanSubdirectories(srcLister);
+			dstEntries = directory.scanDestination(dir, srcLister);
+			lister = srcLister;
+
+			children = new Node[dirs.length];
+			for (int i = 0; i < dirs.length; i++) {
+				children[i] = new Node(dirs[i].getFile(), true);
+			}
+			if (recursive) {
+				for (int i = 0; i < children.length && pending.get() < lookahead; i++) {
+					if (children[i].started.compareAndSet(false, true)) {
+						pending.incrementAndGet();
+						children[i].fork();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Waits until the directory has been read (reads it now if it hasn't
+		 * been started yet).
+		 *
+		 * @return <code>false</code> if the synchronization has been stopped.
+		 */
+		boolean await() {
+			if (started.compareAndSet(false, true)) {
+				pending.incrementAndGet();
+				pool.execute(this);
+			}
+			join();
+			pending.decrementAndGet();
+			return lister != null;
+		}
+
+		/**
+		 * @return The lister of the source directory (entries read).
+		 */
+		DirectoryLister getLister() {
+			return lister;
+		}
+
+		/**
+		 * @return The sorted entries of the destination directory or
+		 *         <code>null</code> if not read.
+		 */
+		FileEntry[] getDstEntries() {
+			return dstEntries;
+		}
+
+		/**
+		 * Gets the node of a subdirectory and forgets it (the subdirectory is
+		 * synchronized only once).
+		 *
+		 * @param i
+		 *            The index of the subdirectory (in the order of the
+		 *            synchronized subdirectories).
+		 * @param subdir
+		 *            The subdirectory.
+		 * @return The node.
+		 */
+		Node child(int i, File subdir) {
+			Node node = null;
+			if (children != null && i < children.length) {
+				node = children[i];
+				children[i] = null;
+			}
+			// the subdirectories are listed the same way; just in case
+			return (node != null && node.dir.equals(subdir)) ? node : new Node(subdir, true);
+		}
+
+		/**
+		 * Frees the listings after the directory has been synchronized.
+		 */
+		void release() {
+			lister = null;
+			dstEntries = null;
+		}
+	}
+
+	/**
+	 * Counts the files of a directory and its subdirectories.
+	 */
+	private class CountTask extends RecursiveTask<Long> {
+
+		private final File dir;
+
+		private final boolean skipLinks;
+
+		private final Log log;
+
+		// the file keys of the directories above (to detect loops of links)
+		private final List ancestors;
+
+		CountTask(File dir, boolean skipLinks, Log log, List ancestors) {
+			this.dir = dir;
+			this.skipLinks = skipLinks;
+			this.log = log;
+			this.ancestors = ancestors;
+		}
+
+		protected Long compute() {
+			DirSync.getSync().sleepOnPause();
+			if (DirSync.getSync().isStopping()) {
+				return Long.valueOf(0);
+			}
+
+			FileEntry[] entries = new DirectoryLister(dir, log, skipLinks).listSortedEntries();
+			long n = 0;
+			List tasks = new ArrayList();
+
+			for (int i = 0; i < entries.length; i++) {
+				if (!entries[i].isDirectory()) {
+					n++; // count as file
+				} else {
+					Object key = entries[i].getFileKey();
+					if (key == null || !ancestors.contains(key)) {
+						List keys = new ArrayList(ancestors);
+						if (key != null) {
+							keys.add(key);
+						}
+						tasks.add(new CountTask(entries[i].getFile(), skipLinks, log, keys));
+					}
+				}
+			}
+
+			invokeAll(tasks);
+			for (Iterator iter = tasks.iterator(); iter.hasNext();) {
+				n += ((CountTask) iter.next()).join().longValue();
+			}
+			return Long.valueOf(n);
+		}
+	}
+
+	/**
+	 * Initializes a new TreeScanner.
+	 *
+	 * @param directory
+	 *            The directory definition synchronized.
+	 * @param threads
+	 *            The number of threads.
+	 * @param lookahead
+	 *            The maximum number of directories read ahead.
+	 */
+	TreeScanner(Directory directory, int threads, int lookahead) {
+		this.directory = directory;
+		this.pool = new ForkJoinPool(Math.max(1, threads));
+		this.lookahead = Math.max(1, lookahead);
+	}
+
+	/**
+	 * Starts reading a tree.
+	 *
+	 * @param dir
+	 *            The source directory.
+	 * @param recursive
+	 *            <code>true</code> to read the subdirectories, too.
+	 * @return The node of the directory.
+	 */
+	Node scan(File dir, boolean recursive) {
+		Node node = new Node(dir, recursive);
+		node.started.set(true);
+		pending.incrementAndGet();
+		pool.execute(node);
+		return node;
+	}
+
+	/**
+	 * Counts the files (not directories) of a directory and its
+	 * subdirectories in parallel.
+	 *
+	 * @param dir
+	 *            The directory.
+	 * @param skipLinks
+	 *            <code>true</code> if links shall be skipped.
+	 * @param log
+	 *            The log to write messages.
+	 * @return The number of files.
+	 */
+	int countFiles(File dir, boolean skipLinks, Log log) {
+		List keys = new ArrayList();
+		try {
+			Object key = Files.readAttributes(dir.toPath(), BasicFileAttributes.class).fileKey();
+			if (key != null) {
+				keys.add(key);
+			}
+		} catch (IOException e) {
+			return 0;
+		}
+		return (int) pool.invoke(new CountTask(dir, skipLinks, log, keys)).longValue();
+	}
+
+	/**
+	 * Stops the threads (at the end of the synchronization).
+	 */
+	void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -23,16 +23,21 @@
 package dirsync.gui;
 
 import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.LinkedList;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.text.AbstractDocument;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Element;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
@@ -43,6 +48,7 @@ import dirsync.directory.Directory;
 import dirsync.exceptions.WarningException;
 import dirsync.sync.Sync;
 import dirsync.tools.Log;
+import dirsync.tools.Progress;
 
 /**
  * Contains the GUI methods.
@@ -57,6 +63,26 @@ public abstract class GuiMethods extends GuiObjects {
 
     protected int lastSelectedIndex;
 
+    // the messages not yet appended to the output area: String[] {message, style}
+    private final LinkedList pendingOutput = new LinkedList();
+
+    // appends the pending messages on the event dispatch thread
+    private Timer outputTimer;
+
+    // updates the progress bars on the event dispatch thread
+    private Timer progressTimer;
+
+    // the progress of the directory progress bar and the name of the
+    // current file/directory (set by the synchronization threads)
+    private volatile int dirProgressValue;
+
+    private volatile String progressFilename = "";
+
+    // directory definitions are synchronized in parallel: the directory
+    // progress bar and the directory name are frozen, because every
+    // definition would reset them
+    private volatile boolean parallelDirs;
+
     // whether the directory is being updated from the gui
     protected boolean isUpdateDirFromGui = true;
 
@@ -290,6 +316,11 @@ public abstract class GuiMethods extends GuiObjects {
         dir.setDelFiles(deleteFilesCheckBox.isSelected());
         dir.setDelDirs(deleteDirsCheckBox.isSelected());
 
+        // keep the options not shown in the GUI
+        if (lastSelectedIndex >= 0 && lastSelectedIndex < DirSync.getSync().getDirs().size()) {
+            dir.copyFileOptions((Directory) DirSync.getSync().getDirs().get(lastSelectedIndex));
+        }
+
         checkDefaults();
 
         return dir;
@@ -829,6 +860,38 @@ public abstract class GuiMethods extends GuiObjects {
         }
     }
 
+    /**
+     * Pauses or resumes the synchronization like the pause button does (on
+     * the event dispatch thread, may be called from any thread).
+     * 
+     * @param paused
+     *            <code>true</code> to pause, <code>false</code> to resume the
+     *            synchronization.
+     */
+    public void setPaused(final boolean paused) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if ((DirSync.getSync().getState() == Sync.PAUSE) != paused) {
+                    pause();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the synchronization like the stop button does (on the event
+     * dispatch thread, may be called from any thread).
+     */
+    public void requestStop() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+            }
+        });
+    }
+
     @Override
     protected void stop() {
         pauseButton.setSelected(false);
@@ -879,64 +942,134 @@ public abstract class GuiMethods extends GuiObjects {
     }
 
     /**
-     * In GUI mode the given message is printed in the output area.
+     * In GUI mode the given message is printed in the output area. The
+     * message is queued and appended together with the other queued messages
+     * on the event dispatch thread (every <code>dirsync.gui.outputdelay</code>
+     * milliseconds); the output area keeps the last
+     * <code>dirsync.gui.maxlines</code> lines.
      * 
      * @param message
      *            The message to print.
      * @param style
      *            The style to use for the message.
      */
-    public void print(String message, final String style) {
+    public void print(final String message, final String style) {
 
         if (DirSync.isGuiMode()) {
+            final int maxLines = Math.max(1, DirSync.getIntProperty("dirsync.gui.maxlines", 5000));
 
-            message = "  " + message;
+            synchronized (pendingOutput) {
+                pendingOutput.add(new String[] { message, style });
+                // older lines would be evicted anyway
+                if (pendingOutput.size() > maxLines) {
+                    pendingOutput.removeFirst();
+                }
 
-            final Document doc = outputArea.getStyledDocument();
-            if (doc != null) {
-                try {
-                    if (style == null) { // no style
+                if (outputTimer == null) {
+                    outputTimer = new Timer(Math.max(1, DirSync.getIntProperty("dirsync.gui.outputdelay", 200)),
+                            new ActionListener() {
+                                @Override
+                                public void actionPerformed(final ActionEvent e) {
+                                    appendPendingOutput();
+                                }
+                            });
+                    outputTimer.setRepeats(false);
+                }
+                if (!outputTimer.isRunning()) {
+                    outputTimer.start();
+                }
+            }
+        }
+    }
 
-                        // all not empty messages get the file icon
-                        if (!message.equals("  ")) {
-                            insertIcon(doc, Const.ICON_FILE);
-                        }
-                        // print message
-                        doc.insertString(doc.getLength(), message + System.getProperty("line.separator"), null);
-
-                    } else { // style
-
-                        // set icon, info as default
-                        if (style.equals(Const.STYLE_SYNC)) {
-                            insertIcon(doc, Const.ICON_SYNC);
-                        } else if (style.equals(Const.STYLE_DIR)) {
-                            insertIcon(doc, Const.ICON_DIR);
-                        } else if (style.equals(Const.STYLE_SUBDIR)) {
-                            insertIcon(doc, Const.ICON_SUBDIR);
-                        } else if (style.equals(Const.STYLE_CONFIG)) {
-                            insertIcon(doc, Const.ICON_CONFIG);
-                        } else if (style.equals(Const.STYLE_ACTION)) {
-                            insertIcon(doc, Const.ICON_ACTION);
-                        } else if (style.equals(Const.STYLE_WARNING)) {
-                            insertIcon(doc, Const.ICON_WARNING);
-                        } else if (style.equals(Const.STYLE_ERROR)) {
-                            insertIcon(doc, Const.ICON_ERROR);
-                        } else {
-                            insertIcon(doc, Const.ICON_INFO);
-                        }
+    /**
+     * Appends the queued messages to the output area and removes the oldest
+     * lines (called on the event dispatch thread).
+     */
+    private void appendPendingOutput() {
+        Object[] messages;
+        synchronized (pendingOutput) {
+            messages = pendingOutput.toArray();
+            pendingOutput.clear();
+        }
 
-                        // print message
-                        doc.insertString(doc.getLength(), message + System.getProperty("line.separator"), DirSync.getGui().outputArea.getStyle(style));
-                    }
+        final Document doc = outputArea.getStyledDocument();
+        if (doc == null || messages.length == 0) {
+            return;
+        }
 
-                    // scroll output to last line (if checkbox "" is selected)
-                    if (autoScrollCheckBox.isSelected()) {
-                        outputArea.setCaretPosition(doc.getLength());
-                    }
-                } catch (final BadLocationException e) {
-                    System.err.println("Could not append message '" + message + "' to output.");
+        for (int i = 0; i < messages.length; i++) {
+            final String[] line = (String[]) messages[i];
+            append(doc, line[0], line[1]);
+        }
+
+        // evict the oldest lines
+        final int maxLines = Math.max(1, DirSync.getIntProperty("dirsync.gui.maxlines", 5000));
+        final Element root = doc.getDefaultRootElement();
+        final int lines = root.getElementCount() - 1; // last line is empty
+        if (lines > maxLines) {
+            try {
+                doc.remove(0, root.getElement(lines - maxLines - 1).getEndOffset());
+            } catch (final BadLocationException e) {
+                System.err.println("Could not remove old messages from output.");
+            }
+        }
+
+        // scroll output to last line (if checkbox "" is selected)
+        if (autoScrollCheckBox.isSelected()) {
+            outputArea.setCaretPosition(doc.getLength());
+        }
+    }
+
+    /**
+     * Appends a message to the output area.
+     * 
+     * @param doc
+     *            The document of the output area.
+     * @param message
+     *            The message to print.
+     * @param style
+     *            The style to use for the message.
+     */
+    private void append(final Document doc, String message, final String style) {
+        message = "  " + message;
+
+        try {
+            if (style == null) { // no style
+
+                // all not empty messages get the file icon
+                if (!message.equals("  ")) {
+                    insertIcon(doc, Const.ICON_FILE);
                 }
+                // print message
+                doc.insertString(doc.getLength(), message + System.getProperty("line.separator"), null);
+
+            } else { // style
+
+                // set icon, info as default
+                if (style.equals(Const.STYLE_SYNC)) {
+                    insertIcon(doc, Const.ICON_SYNC);
+                } else if (style.equals(Const.STYLE_DIR)) {
+                    insertIcon(doc, Const.ICON_DIR);
+                } else if (style.equals(Const.STYLE_SUBDIR)) {
+                    insertIcon(doc, Const.ICON_SUBDIR);
+                } else if (style.equals(Const.STYLE_CONFIG)) {
+                    insertIcon(doc, Const.ICON_CONFIG);
+                } else if (style.equals(Const.STYLE_ACTION)) {
+                    insertIcon(doc, Const.ICON_ACTION);
+                } else if (style.equals(Const.STYLE_WARNING)) {
+                    insertIcon(doc, Const.ICON_WARNING);
+                } else if (style.equals(Const.STYLE_ERROR)) {
+                    insertIcon(doc, Const.ICON_ERROR);
+                } else {
+                    insertIcon(doc, Const.ICON_INFO);
+                }
+
+                // print message
+                doc.insertString(doc.getLength(), message + System.getProperty("line.separator"), outputArea.getStyle(style));
             }
+        } catch (final BadLocationException e) {
+            System.err.println("Could not append message '" + message + "' to output.");
         }
     }
 
@@ -962,7 +1095,9 @@ public abstract class GuiMethods extends GuiObjects {
      *            The actDirName to set.
      */
     public void setCurrentDirName(final String actDirName) {
-        currentDirName = actDirName;
+        if (!parallelDirs) {
+            currentDirName = actDirName;
+        }
     }
 
     /**
@@ -1003,14 +1138,35 @@ public abstract class GuiMethods extends GuiObjects {
     public void initSyncProgress(final int numberOfDirs) {
         syncProgress.setMaximum(numberOfDirs * 100);
         syncProgress.setValue(0);
+        currentProgress.setMaximum(1000);
+        currentProgress.setValue(0);
+        dirProgressValue = 0;
+        progressFilename = "";
+        parallelDirs = (DirSync.getSync().getParallelDirs() > 1) && (numberOfDirs > 1);
+        if (parallelDirs) {
+            currentDirName = "";
+        }
+
+        if (progressTimer == null) {
+            progressTimer = new Timer(Math.max(10, DirSync.getIntProperty("dirsync.gui.progressinterval", 250)),
+                    new ActionListener() {
+                        @Override
+                        public void actionPerformed(final ActionEvent e) {
+                            updateProgress();
+                        }
+                    });
+        }
+        progressTimer.start();
     }
 
     /**
      * Initialize the directory progress bar.
      */
     public void initDirProgress() {
+        dirProgress.setIndeterminate(false);
         dirProgress.setMaximum(0);
         dirProgress.setValue(0);
+        dirProgress.setString(parallelDirs ? "Directories synchronized in parallel" : null);
     }
 
     /**
@@ -1039,7 +1195,7 @@ public abstract class GuiMethods extends GuiObjects {
      *            The indeterminate status of the directory progress bar.
      */
     public void setDirProgressIndeterminate(final boolean indeterminate) {
-        if (DirSync.isGuiMode()) {
+        if (DirSync.isGuiMode() && !parallelDirs) {
             dirProgress.setIndeterminate(indeterminate);
         }
     }
@@ -1056,18 +1212,6 @@ public abstract class GuiMethods extends GuiObjects {
         }
     }
 
-    /**
-     * Set the progress of the synchronization.
-     * 
-     * @param value
-     *            The progress of the synchronization.
-     */
-    public void setCurrentProgress(final int value) {
-        if (DirSync.isGuiMode()) {
-            currentProgress.setValue(value);
-        }
-    }
-
     /**
      * Set the maximum value for the directory progress bar.
      * 
@@ -1075,7 +1219,7 @@ public abstract class GuiMethods extends GuiObjects {
      *            The maximum value for the directory progress bar.
      */
     public void setDirProgressMaximum(final int n) {
-        if (DirSync.isGuiMode()) {
+        if (DirSync.isGuiMode() && !parallelDirs) {
             dirProgress.setMaximum(n);
         }
     }
@@ -1087,7 +1231,7 @@ public abstract class GuiMethods extends GuiObjects {
      *            The text for the directory progress bar.
      */
     public void setDirProgressText(final String s) {
-        if (DirSync.isGuiMode()) {
+        if (DirSync.isGuiMode() && !parallelDirs) {
             dirProgress.setString(s);
         }
     }
@@ -1105,37 +1249,63 @@ public abstract class GuiMethods extends GuiObjects {
     }
 
     /**
-     * Set the maximum value for the current progress bar.
+     * Set the progress of the synchronization. The progress bars are updated
+     * at a fixed rate by <code>updateProgress()</code>. Ignored while directory
+     * definitions are synchronized in parallel.
      * 
      * @param n
-     *            The maximum value for the current progress bar.
+     *            The value of the progress.
+     * @param filename
+     *            The name of the current file/directory.
      */
-    public void setCurrentProgressMaximum(final int n) {
-        if (DirSync.isGuiMode()) {
-            currentProgress.setMaximum(n);
+    public void setProgress(final int n, final String filename) {
+        if (parallelDirs) {
+            return;
         }
+        dirProgressValue = n;
+        progressFilename = filename;
     }
 
     /**
-     * Set the progress of the synchronization and update the progress bars.
-     * 
-     * @param n
-     *            The value of the progress.
-     * @param filename
-     *            The name of the current file/directory.
+     * Update the progress bars with the sampled progress, the throughput and
+     * the estimated remaining time (on the event dispatch thread).
      */
-    public void setProgress(final int n, final String filename) {
+    private void updateProgress() {
+        Progress progress = Progress.getProgress();
+        boolean stopped = DirSync.getSync().getState() == Sync.STOP;
+
+        progress.sample();
 
-        if (dirProgress.getMaximum() > 0) {
-            syncProgress.setValue((DirSync.getSync().getDirCounter() - 1) * 100 + (n * 100) / dirProgress.getMaximum());
+        // aggregated over all running directory definitions
+        int value = DirSync.getSync().getSyncProgress();
+        syncProgress.setValue(value);
+        if (stopped) {
+            syncProgress.setString(null);
         } else {
-            syncProgress.setValue(DirSync.getSync().getDirCounter() * 100);
+            syncProgress.setString((value * 100 / Math.max(1, syncProgress.getMaximum())) + "% "
+                    + progress.getStatus());
         }
 
-        dirProgress.setValue(n);
+        if (!parallelDirs) {
+            dirProgress.setValue(dirProgressValue);
+        }
 
-        currentProgress.setString(filename);
+        // the file being copied or the last file/directory processed
+        String name = progress.getCurrentName();
+        if (stopped) {
+            currentProgress.setValue(0);
+        } else if (!name.equals("")) {
+            currentProgress.setValue(progress.getCurrentPerMille());
+            currentProgress.setString(name);
+        } else {
+            currentProgress.setValue(0);
+            currentProgress.setString(progressFilename);
+        }
 
         updateTitle();
+
+        if (stopped) {
+            progressTimer.stop();
+        }
     }
 }
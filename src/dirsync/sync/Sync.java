@@ -23,16 +23,26 @@ package dirsync.sync;
 import java.awt.Cursor;
 import java.awt.Toolkit;
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import dirsync.Const;
 import dirsync.DirSync;
 import dirsync.directory.Directory;
 import dirsync.exceptions.IncompleteConfigurationException;
+import dirsync.tools.BufferPool;
 import dirsync.tools.DateTools;
+import dirsync.tools.Fsync;
 import dirsync.tools.Log;
+import dirsync.tools.Progress;
 import dirsync.xml.XmlReader;
 import dirsync.xml.XmlWriter;
 
@@ -82,9 +92,16 @@ public class Sync {
 
 	private int dirCounter;
 
+	// the number of finished directory definitions (for the progress)
+	private int dirsFinished;
+
+	// the directory definitions currently synchronized
+	private final Vector runningDirs = new Vector();
+
 	private int mode = SYNCHRONIZATION;
 
-	private int state = STOP;
+	// set by the GUI, the watcher and the MBean
+	private volatile int state = STOP;
 
 	private int error = NOERROR;
 
@@ -96,6 +113,8 @@ public class Sync {
 
 	private int maxTimestampDiff = 0;
 
+	private boolean reconcile = false;
+
 	/**
 	 * Initializes a new synchronization.
 	 */
@@ -182,9 +201,48 @@ public class Sync {
 	}
 
 	/**
-	 * Synchronizes the given directories one by one.
+	 * Synchronizes the given directories one by one, or in parallel if more
+	 * than one parallel directory is configured.
 	 */
 	public void synchronize() {
+		synchronize((Map) null);
+	}
+
+	/**
+	 * Synchronizes the changes in the given directory definitions (watch
+	 * mode).
+	 * 
+	 * @param changes
+	 *            The directory definitions to synchronize mapped to their
+	 *            changed source directories (see
+	 *            {@link Directory#synchronizeChanges(Map)}), or to
+	 *            <code>null</code> if the whole directory is synchronized.
+	 */
+	public void synchronizeChanges(Map changes) {
+		this.mode = SYNCHRONIZATION;
+		synchronize(changes);
+	}
+
+	/**
+	 * Watches the source directories of all enabled directory definitions and
+	 * synchronizes their changes (watch mode); returns only if no directory
+	 * can be watched.
+	 * 
+	 * @throws IOException
+	 */
+	public void watch() throws IOException {
+		new Watcher(this).watch();
+	}
+
+	/**
+	 * Synchronizes all enabled directory definitions or only the changes in
+	 * the given directory definitions.
+	 * 
+	 * @param changes
+	 *            The changes to synchronize or <code>null</code> to
+	 *            synchronize all enabled directory definitions.
+	 */
+	private void synchronize(Map changes) {
 		String globalLogFilename = "";
 		try {
 			if (DirSync.isGuiMode()) {
@@ -194,17 +252,30 @@ public class Sync {
 
 			setError(Sync.NOERROR);
 			syncDate = new Date();
+			BufferPool.getPool().resetStatistics();
+			Progress.getProgress().reset();
 
-			DirSync.getLog().print("* Started " + (isPreview() ? "preview of " : "") + "synchronization *", Const.STYLE_SYNC);
-			DirSync.getLog().print("");
-			DirSync.getLog().print("Global configuration:", Const.STYLE_INFO);
 			globalLogFilename = DateTools.replaceWildcards(DirSync.getLog().getFilename(), syncDate);
-			DirSync.getLog().print("  Logfile              = \"" + globalLogFilename + "\"", Const.STYLE_CONFIG);
-			DirSync.getLog().print("  Write TimeStamp back = " + isWriteTimestampBack(), Const.STYLE_CONFIG);
-			DirSync.getLog().print("  Max TimeStamp Diff   = " + getMaxTimestampDiff() + " s", Const.STYLE_CONFIG);
-			DirSync.getLog().print("  Skip Symbolic Links  = " + isSkipLinks(), Const.STYLE_CONFIG);
+			if (changes != null) {
+				// watch mode: the configuration has been printed by the
+				// initial synchronization
+				DirSync.getLog().print("* Started synchronization of changes *", Const.STYLE_SYNC);
+			} else {
+				DirSync.getLog().print("* Started " + (isPreview() ? "preview of " : "") + "synchronization *", Const.STYLE_SYNC);
+				DirSync.getLog().print("");
+				DirSync.getLog().print("Global configuration:", Const.STYLE_INFO);
+				DirSync.getLog().print("  Logfile              = \"" + globalLogFilename + "\"", Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Log Level            = " + Log.getLevelName(DirSync.getLog().getLevel()), Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Write TimeStamp back = " + isWriteTimestampBack(), Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Max TimeStamp Diff   = " + getMaxTimestampDiff() + " s", Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Skip Symbolic Links  = " + isSkipLinks(), Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Parallel Directories = " + getParallelDirs(), Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Atomic Writes        = " + DirSync.getBooleanProperty("dirsync.copy.atomic", false), Const.STYLE_CONFIG);
+				DirSync.getLog().print("  Fsync                = " + Fsync.getPolicy(), Const.STYLE_CONFIG);
+			}
 			DirSync.getLog().print("");
-			DirSync.getLog().print("Number of directories to synchronize = " + getNumberOfEnabledDirs(), Const.STYLE_INFO);
+			DirSync.getLog().print("Number of directories to synchronize = "
+					+ (changes != null ? changes.size() : getNumberOfEnabledDirs()), Const.STYLE_INFO);
 
 			// init dirsync progressbar and title
 			if (DirSync.isGuiMode()) {
@@ -215,125 +286,42 @@ public class Sync {
 			}
 
 			dirCounter = 0;
-			for (Iterator iter = dirs.iterator(); iter.hasNext();) {
+			dirsFinished = 0;
+			runningDirs.clear();
 
-				// if an error has happened it has happened in an other
-				// directory
-				if (getError() == Sync.ERROR_THIS_DIRECTORY) {
-					setError(Sync.ERROR_OTHER_DIRECTORY);
-				}
-
-				try {
+			if (getParallelDirs() > 1) {
+				synchronizeParallel(changes, globalLogFilename);
+			} else {
+				for (Iterator iter = dirs.iterator(); iter.hasNext();) {
 					Directory dir = (Directory) iter.next();
 
-					if (!dir.isEnabled()) {
+					if (!dir.isEnabled() || (changes != null && !changes.containsKey(dir))) {
 						continue;
 					}
 
 					dirCounter++;
-
-					if (DirSync.isGuiMode()) {
-						// for displaying in the title bar
-						DirSync.getGui().setCurrentDirName(dir.getName());
-						// set dirsync progressbar
-						DirSync.getGui().setSyncProgress((dirCounter - 1) * 100);
-						DirSync.getGui().setCurrentProgressText(dir.getName());
-					}
-
-					// replace date and time wildcards in destination directory
-					dir.setDst(DateTools.replaceWildcards(dir.getDst(), syncDate));
-
-					DirSync.getLog().print("");
-
-					DirSync.getLog().print(
-							(DirSync.getSync().isPreview() ? "Preview of d" : "D") + "irectory #" + dirCounter + " '" + dir.getName() + "' started:",
-							Const.STYLE_DIR);
-					DirSync.getLog().print("  Source Path      = \"" + dir.getSrc() + "\"", Const.STYLE_CONFIG);
-					DirSync.getLog().print("  Destination Path = \"" + dir.getDst() + "\"", Const.STYLE_CONFIG);
-					DirSync.getLog().print("  With Subfolders  = " + dir.isWithSubfolders(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("  Verify           = " + dir.isVerify(), Const.STYLE_CONFIG);
-
-					// replace date and time wildcards in log file
-					String log = DateTools.replaceWildcards(dir.getLogfile(), syncDate);
-					// replace global log path wildcard in log file
-					if (log.indexOf(WILDCARD_GLOBALLOG) != -1) {
-						if (globalLogFilename != null 
-								&& !globalLogFilename.equals("") 
-								&& new File(globalLogFilename) != null 
-								&& new File(globalLogFilename).getParent() != null) {
-							log = log.replaceAll(WILDCARD_GLOBALLOG, new File(globalLogFilename).getParent());
-						} else {
-							log = log.replaceAll(WILDCARD_GLOBALLOG, "");
-							setError(Sync.WARNING);
-							DirSync.getLog().print("Wildcard '" + WILDCARD_GLOBALLOG + "' specified in Logfile but global log not set correctly.", Const.STYLE_WARNING);
-						}
-					}
-					// replace directory definition name wildcard in log file
-					log = log.replaceAll(WILDCARD_NAME, dir.getName());
-					dir.setLogfile(log); // TODO replace!
-
-					DirSync.getLog().print("  Logfile          = \"" + dir.getLogfile() + "\"", Const.STYLE_CONFIG);
-
-					// empty include means all
-					if (dir.getFileInclude().equals("")) {
-						dir.setFileInclude("*");
-					}
-					if (dir.getDirInclude().equals("")) {
-						dir.setDirInclude("*");
-					}
-					// print include mask (if any)
-					if (dir.hasFileIncludes()) {
-						DirSync.getLog().print("  Include files    = " + dir.getFileInclude(), Const.STYLE_CONFIG);
-					}
-					// print exclude mask (if any)
-					if (dir.hasFileExcludes()) {
-						DirSync.getLog().print("  Exclude files    = " + dir.getFileExclude(), Const.STYLE_CONFIG);
-					}
-					if (dir.hasDirIncludes()) {
-						DirSync.getLog().print("  Include dirs     = " + dir.getDirInclude(), Const.STYLE_CONFIG);
-					}
-					// print exclude mask (if any)
-					if (dir.hasDirExcludes()) {
-						DirSync.getLog().print("  Exclude dirs     = " + dir.getDirExclude(), Const.STYLE_CONFIG);
-					}
-
-					DirSync.getLog().print("");
-					DirSync.getLog().print("  Sync mode:", Const.STYLE_INFO);
-					DirSync.getLog().print("    All            = " + dir.isCopyAll(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("    New            = " + dir.isCopyNew(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("    Modified       = " + dir.isCopyModified(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("    Larger         = " + dir.isCopyLarger(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("    LargerModified = " + dir.isCopyLargerModified(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("    Delete Files   = " + dir.isDelFiles(), Const.STYLE_CONFIG);
-					DirSync.getLog().print("    Delete Dirs    = " + dir.isDelDirs(), Const.STYLE_CONFIG);
-
-					DirSync.getLog().print("");
-
-					dir.synchronize();
-
-					DirSync.getLog().print("");
+					synchronizeDirectory(dir, dirCounter, globalLogFilename,
+							(changes != null) ? (Map) changes.get(dir) : null, changes == null);
 
 					if (isStopping()) {
-						DirSync.getLog().print((isPreview() ? "Preview of d" : "D") + "irectory #" + dirCounter + " '" + dir.getName() + "' stopped.",
-								Const.STYLE_DIR);
 						break;
 					}
-					DirSync.getLog().print((isPreview() ? "Preview of d" : "D") + "irectory #" + dirCounter + " '" + dir.getName() + "' finished.",
-							Const.STYLE_DIR);
-					DirSync.getLog().print("");
-
-					// set dirsync progressbar
-					if (DirSync.isGuiMode()) {
-						DirSync.getGui().setSyncProgress(dirCounter * 100);
-					}
-
-				} catch (IncompleteConfigurationException ice) {
-					setError(Sync.ERROR_THIS_DIRECTORY);
-					DirSync.getLog().print("Skipping " + (isPreview() ? "preview of " : "") + "directory because of incomplete configuration.",
-							Const.STYLE_ERROR);
 				}
 			}
 
+			// force the files still pending (e.g. of an aborted definition) to disk
+			try {
+				Fsync.flush();
+			} catch (IOException e) {
+				mergeError(Sync.ERROR_THIS_DIRECTORY);
+				DirSync.getLog().print("Written files could not be forced to disk (" + e.getMessage() + ").", Const.STYLE_ERROR);
+			}
+
+			BufferPool pool = BufferPool.getPool();
+			DirSync.getLog().print("Buffer pool: " + (pool.getHits() + pool.getMisses()) + " leases, "
+					+ pool.getHits() + " hits, " + pool.getMisses() + " misses, peak " + pool.getPeak()
+					+ " of " + pool.getCount() + " buffers (" + (pool.getBufferSize() / 1024) + " KB)", Const.STYLE_INFO);
+
 			switch (getError()) {
 				case Sync.WARNING: // finished with warnings
 					DirSync.getLog().print("* Finished " + (isPreview() ? "preview of " : "") + "synchronization with warnings! *", Const.STYLE_INFO);
@@ -397,10 +385,224 @@ public class Sync {
 				DirSync.getGui().setCurrentProgressText("");
 				DirSync.getGui().updateTitle();
 			}
+			// write the log before the next synchronization (or the exit)
+			DirSync.getLog().flush();
 			setState(Sync.STOP);
 		}
 	}
 
+	/**
+	 * Synchronizes the enabled directory definitions concurrently using a
+	 * fixed number of worker threads (see {@link #getParallelDirs()}). The
+	 * directory numbers are assigned in the order of the definitions.
+	 * 
+	 * @param changes
+	 *            The changes to synchronize or <code>null</code> to
+	 *            synchronize all enabled directory definitions.
+	 * @param globalLogFilename
+	 *            The filename of the global log (wildcards replaced).
+	 * @throws Throwable
+	 *             The first fatal error thrown by a directory definition.
+	 */
+	private void synchronizeParallel(final Map changes, final String globalLogFilename) throws Throwable {
+		ExecutorService executor = Executors.newFixedThreadPool(getParallelDirs());
+		Vector futures = new Vector();
+
+		try {
+			for (Iterator iter = dirs.iterator(); iter.hasNext();) {
+				final Directory dir = (Directory) iter.next();
+
+				if (!dir.isEnabled() || (changes != null && !changes.containsKey(dir))) {
+					continue;
+				}
+
+				final int dirNumber = ++dirCounter;
+				final Map changedDirs = (changes != null) ? (Map) changes.get(dir) : null;
+				futures.add(executor.submit(new Callable() {
+					public Object call() throws Exception {
+						// don't start queued directories after a stop
+						if (!isStopping()) {
+							synchronizeDirectory(dir, dirNumber, globalLogFilename, changedDirs, changes == null);
+						}
+						return null;
+					}
+				}));
+			}
+
+			// wait for all directories to finish
+			for (Iterator iter = futures.iterator(); iter.hasNext();) {
+				try {
+					((Future) iter.next()).get();
+				} catch (ExecutionException ee) {
+					throw ee.getCause();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Synchronizes a single directory definition. The error state of the
+	 * directory definition is merged into the error state of the
+	 * synchronization afterwards.
+	 * 
+	 * @param dir
+	 *            The directory definition to synchronize.
+	 * @param dirNumber
+	 *            The number of the directory definition (for the log).
+	 * @param globalLogFilename
+	 *            The filename of the global log (wildcards replaced).
+	 * @param changedDirs
+	 *            The changed source directories to synchronize or
+	 *            <code>null</code> to synchronize the whole directory.
+	 * @param printConfig
+	 *            <code>true</code> to print the configuration of the directory
+	 *            definition (not for the changes of watch mode).
+	 * @throws Exception
+	 */
+	private void synchronizeDirectory(Directory dir, int dirNumber, String globalLogFilename, Map changedDirs,
+			boolean printConfig) throws Exception {
+		dir.setError(Sync.NOERROR);
+
+		synchronized (runningDirs) {
+			runningDirs.add(dir);
+		}
+
+		try {
+			if (DirSync.isGuiMode()) {
+				// for displaying in the title bar
+				DirSync.getGui().setCurrentDirName(dir.getName());
+				// set dirsync progressbar
+				DirSync.getGui().setSyncProgress(getSyncProgress());
+				DirSync.getGui().setCurrentProgressText(dir.getName());
+			}
+
+			// replace date and time wildcards in destination directory
+			dir.setDst(DateTools.replaceWildcards(dir.getDst(), syncDate));
+
+			// keep the configuration of a directory together in the global log
+			synchronized (DirSync.getLog()) {
+				DirSync.getLog().print("");
+
+				DirSync.getLog().print(
+						(isPreview() ? "Preview of d" : "D") + "irectory #" + dirNumber + " '" + dir.getName() + "' started:",
+						Const.STYLE_DIR);
+				if (printConfig) {
+					DirSync.getLog().print("  Source Path      = \"" + dir.getSrc() + "\"", Const.STYLE_CONFIG);
+					DirSync.getLog().print("  Destination Path = \"" + dir.getDst() + "\"", Const.STYLE_CONFIG);
+					DirSync.getLog().print("  With Subfolders  = " + dir.isWithSubfolders(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("  Verify           = " + dir.isVerify(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("  Delta Copy       = " + dir.isDeltaCopy(), Const.STYLE_CONFIG);
+				}
+
+				// replace date and time wildcards in log file
+				String log = DateTools.replaceWildcards(dir.getLogfile(), syncDate);
+				// replace global log path wildcard in log file
+				if (log.indexOf(WILDCARD_GLOBALLOG) != -1) {
+					if (globalLogFilename != null 
+							&& !globalLogFilename.equals("") 
+							&& new File(globalLogFilename) != null 
+							&& new File(globalLogFilename).getParent() != null) {
+						log = log.replaceAll(WILDCARD_GLOBALLOG, new File(globalLogFilename).getParent());
+					} else {
+						log = log.replaceAll(WILDCARD_GLOBALLOG, "");
+						mergeError(Sync.WARNING);
+						DirSync.getLog().print("Wildcard '" + WILDCARD_GLOBALLOG + "' specified in Logfile but global log not set correctly.", Const.STYLE_WARNING);
+					}
+				}
+				// replace directory definition name wildcard in log file
+				log = log.replaceAll(WILDCARD_NAME, dir.getName());
+				dir.setLogfile(log); // TODO replace!
+
+				if (printConfig) {
+					DirSync.getLog().print("  Logfile          = \"" + dir.getLogfile() + "\"", Const.STYLE_CONFIG);
+					DirSync.getLog().print("  Log Level        = " + Log.getLevelName(Log.parseLevel(dir.getLogLevel(),
+							Log.getDefaultLevel())), Const.STYLE_CONFIG);
+					if (!dir.getIndexfile().equals("")) {
+						DirSync.getLog().print("  Index file       = \"" + dir.getIndexfile() + "\"", Const.STYLE_CONFIG);
+					}
+					if (!dir.getManifestfile().equals("")) {
+						DirSync.getLog().print("  Manifest file    = \"" + dir.getManifestfile() + "\"", Const.STYLE_CONFIG);
+					}
+				}
+
+				// empty include means all
+				if (dir.getFileInclude().equals("")) {
+					dir.setFileInclude("*");
+				}
+				if (dir.getDirInclude().equals("")) {
+					dir.setDirInclude("*");
+				}
+				if (printConfig) {
+					// print include mask (if any)
+					if (dir.hasFileIncludes()) {
+						DirSync.getLog().print("  Include files    = " + dir.getFileInclude(), Const.STYLE_CONFIG);
+					}
+					// print exclude mask (if any)
+					if (dir.hasFileExcludes()) {
+						DirSync.getLog().print("  Exclude files    = " + dir.getFileExclude(), Const.STYLE_CONFIG);
+					}
+					if (dir.hasDirIncludes()) {
+						DirSync.getLog().print("  Include dirs     = " + dir.getDirInclude(), Const.STYLE_CONFIG);
+					}
+					// print exclude mask (if any)
+					if (dir.hasDirExcludes()) {
+						DirSync.getLog().print("  Exclude dirs     = " + dir.getDirExclude(), Const.STYLE_CONFIG);
+					}
+
+					DirSync.getLog().print("");
+					DirSync.getLog().print("  Sync mode:", Const.STYLE_INFO);
+					DirSync.getLog().print("    All            = " + dir.isCopyAll(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("    New            = " + dir.isCopyNew(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("    Modified       = " + dir.isCopyModified(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("    Larger         = " + dir.isCopyLarger(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("    LargerModified = " + dir.isCopyLargerModified(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("    Delete Files   = " + dir.isDelFiles(), Const.STYLE_CONFIG);
+					DirSync.getLog().print("    Delete Dirs    = " + dir.isDelDirs(), Const.STYLE_CONFIG);
+
+					DirSync.getLog().print("");
+				}
+			}
+
+			if (changedDirs == null) {
+				dir.synchronize();
+			} else {
+				dir.synchronizeChanges(changedDirs);
+			}
+
+			synchronized (DirSync.getLog()) {
+				DirSync.getLog().print("");
+
+				if (isStopping()) {
+					DirSync.getLog().print((isPreview() ? "Preview of d" : "D") + "irectory #" + dirNumber + " '" + dir.getName() + "' stopped.",
+							Const.STYLE_DIR);
+				} else {
+					DirSync.getLog().print((isPreview() ? "Preview of d" : "D") + "irectory #" + dirNumber + " '" + dir.getName() + "' finished.",
+							Const.STYLE_DIR);
+					DirSync.getLog().print("");
+				}
+			}
+
+		} catch (IncompleteConfigurationException ice) {
+			dir.setError(Sync.ERROR_THIS_DIRECTORY);
+			DirSync.getLog().print("Skipping " + (isPreview() ? "preview of " : "") + "directory because of incomplete configuration.",
+					Const.STYLE_ERROR);
+
+		} finally {
+			synchronized (runningDirs) {
+				runningDirs.remove(dir);
+				dirsFinished++;
+			}
+			mergeError(dir.getError());
+
+			// set dirsync progressbar
+			if (DirSync.isGuiMode()) {
+				DirSync.getGui().setSyncProgress(getSyncProgress());
+			}
+		}
+	}
+
 	/**
 	 * Checks if the mode if the synchronization is preview.
 	 * 
@@ -481,6 +683,24 @@ public class Sync {
 		writeTimestampBack = b;
 	}
 
+	/**
+	 * @return <code>true</code> if the destination manifests are reconciled
+	 *         with their destinations on every synchronization.
+	 */
+	public boolean isReconcile() {
+		return reconcile;
+	}
+
+	/**
+	 * @param reconcile
+	 *            Set to <code>true</code> to reconcile the destination
+	 *            manifests with their destinations (option
+	 *            <code>reconcile</code>).
+	 */
+	public void setReconcile(boolean reconcile) {
+		this.reconcile = reconcile;
+	}
+
 	/**
 	 * @return Returns the timestampDiff.
 	 */
@@ -525,17 +745,94 @@ public class Sync {
 	 * @param error
 	 *            The error to set.
 	 */
-	public void setError(int error) {
+	public synchronized void setError(int error) {
 		this.error = error;
 	}
 
+	/**
+	 * Merges the error state of a directory definition into the error state
+	 * of the synchronization; the more severe error state is kept. An error
+	 * in a directory definition becomes an error in an other directory for
+	 * the synchronization.
+	 * 
+	 * @param error
+	 *            The error to merge.
+	 */
+	public synchronized void mergeError(int error) {
+		if (error == Sync.ERROR_THIS_DIRECTORY) {
+			error = Sync.ERROR_OTHER_DIRECTORY;
+		}
+		if (error > this.error) {
+			this.error = error;
+		}
+	}
+
 	/**
 	 * @return Returns the error.
 	 */
-	public int getError() {
+	public synchronized int getError() {
 		return error;
 	}
 
+	/**
+	 * Gets the progress of the synchronization. Every finished directory
+	 * definition counts 100, running directory definitions count with their
+	 * current progress (0 to 100).
+	 * 
+	 * @return The progress of the synchronization.
+	 */
+	public int getSyncProgress() {
+		synchronized (runningDirs) {
+			int progress = dirsFinished * 100;
+
+			for (Iterator iter = runningDirs.iterator(); iter.hasNext();) {
+				progress += ((Directory) iter.next()).getProgress();
+			}
+			return progress;
+		}
+	}
+
+	/**
+	 * Returns the names of the directory definitions currently synchronized.
+	 * 
+	 * @return The names.
+	 */
+	public String[] getRunningDirNames() {
+		synchronized (runningDirs) {
+			String[] names = new String[runningDirs.size()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = ((Directory) runningDirs.get(i)).getName();
+			}
+			return names;
+		}
+	}
+
+	/**
+	 * Returns the number of files waiting in the queues of the copy
+	 * pipelines of the running directory definitions.
+	 * 
+	 * @return The number of queued files.
+	 */
+	public int getCopyQueueSize() {
+		synchronized (runningDirs) {
+			int size = 0;
+			for (Iterator iter = runningDirs.iterator(); iter.hasNext();) {
+				size += ((Directory) iter.next()).getCopyQueueSize();
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Gets the number of directory definitions synchronized in parallel
+	 * (property <code>dirsync.sync.paralleldirs</code>).
+	 * 
+	 * @return The number of directory definitions synchronized in parallel.
+	 */
+	public int getParallelDirs() {
+		return Math.max(1, DirSync.getIntProperty("dirsync.sync.paralleldirs", 1));
+	}
+
 	/**
 	 * Counts the number of enables directory definitions.
 	 * 
@@ -596,6 +893,16 @@ public class Sync {
 		}
 	}
 
+	/**
+	 * Writes the destination manifests kept in memory by watch mode (see
+	 * {@link Directory#saveManifest()}).
+	 */
+	void saveManifests() {
+		for (Iterator iter = dirs.iterator(); iter.hasNext();) {
+			((Directory) iter.next()).saveManifest();
+		}
+	}
+
 	/**
 	 * @return Returns the dirs.
 	 */
@@ -0,0 +1,180 @@
+/*
+ * SyncMonitor.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.sync;
+
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import dirsync.DirSync;
+import dirsync.tools.Progress;
+
+/**
+ * Exposes the running synchronization via JMX (as
+ * <code>dirsync:type=Sync</code>). The attributes are read from the counters
+ * the synchronization keeps anyway (see <code>Progress</code>), so the MBean
+ * costs nothing while nobody looks at it. Without GUI the throughput is
+ * sampled every <code>dirsync.jmx.sampleinterval</code> milliseconds while a
+ * synchronization runs (the GUI samples it itself), so it doesn't depend on
+ * how often it is read.
+ * 
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class SyncMonitor implements SyncMonitorMBean {
+
+	/** The name the MBean is registered with. */
+	public static final String NAME = "dirsync:type=Sync";
+
+	/**
+	 * Registers the MBean with the platform MBean server (if
+	 * <code>dirsync.jmx</code> is enabled).
+	 */
+	public static void register() {
+		if (!DirSync.getBooleanProperty("dirsync.jmx", true)) {
+			return;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new SyncMonitor(), name);
+				startSampling();
+			}
+		} catch (JMException e) {
+			System.out.println("Warning: Can't register the MBean '" + NAME + "': " + e.getMessage());
+		}
+	}
+
+	public String getState() {
+		switch (DirSync.getSync().getState()) {
+		case Sync.STOPPING:
+			return "stopping";
+		case Sync.START:
+			return "start";
+		case Sync.PAUSE:
+			return "pause";
+		default:
+			return "stop";
+		}
+	}
+
+	public String getMode() {
+		return DirSync.getSync().isPreview() ? "preview" : "synchronization";
+	}
+
+	public String[] getCurrentDirectories() {
+		return DirSync.getSync().getRunningDirNames();
+	}
+
+	public long getFilesScanned() {
+		return Progress.getProgress().getFiles();
+	}
+
+	public long getFilesTotal() {
+		return Progress.getProgress().getTotalFiles();
+	}
+
+	public long getFilesCopied() {
+		return Progress.getProgress().getCopied();
+	}
+
+	public long getFilesDeleted() {
+		return Progress.getProgress().getDeleted();
+	}
+
+	public long getBytesCopied() {
+		return Progress.getProgress().getBytes();
+	}
+
+	public double getBytesPerSecond() {
+		return Progress.getProgress().getBytesPerSecond();
+	}
+
+	public double getFilesPerSecond() {
+		return Progress.getProgress().getFilesPerSecond();
+	}
+
+	public int getCopyQueueSize() {
+		return DirSync.getSync().getCopyQueueSize();
+	}
+
+	public int getLogQueueSize() {
+		return DirSync.getLog().getQueuedLines();
+	}
+
+	public String getPhaseTimes() {
+		return Progress.getProgress().getPhaseTimes();
+	}
+
+	public void pause() {
+		if (DirSync.getSync().getState() == Sync.START) {
+			if (DirSync.isGuiMode()) {
+				// keeps the pause button in step
+				DirSync.getGui().setPaused(true);
+			} else {
+				DirSync.getSync().setState(Sync.PAUSE);
+			}
+		}
+	}
+
+	public void resume() {
+		if (DirSync.getSync().getState() == Sync.PAUSE) {
+			if (DirSync.isGuiMode()) {
+				DirSync.getGui().setPaused(false);
+			} else {
+				DirSync.getSync().setState(Sync.START);
+			}
+		}
+	}
+
+	public void stop() {
+		if (DirSync.getSync().getState() != Sync.STOP) {
+			if (DirSync.isGuiMode()) {
+				// releases the pause button, too
+				DirSync.getGui().requestStop();
+			} else {
+				DirSync.getSync().setState(Sync.STOPPING);
+			}
+		}
+	}
+
+	/**
+	 * Starts sampling the throughput at a fixed rate (in a daemon thread).
+	 */
+	private static void startSampling() {
+		long interval = Math.max(100, DirSync.getIntProperty("dirsync.jmx.sampleinterval", 1000));
+
+		new Timer("DirSync JMX sampler", true).scheduleAtFixedRate(new TimerTask() {
+			public void run() {
+				// the GUI samples the progress itself
+				if (!DirSync.isGuiMode() && DirSync.getSync().getState() != Sync.STOP) {
+					Progress.getProgress().sample();
+				}
+			}
+		}, interval, interval);
+	}
+}
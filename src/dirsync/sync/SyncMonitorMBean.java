@@ -0,0 +1,114 @@
+/*
+ * SyncMonitorMBean.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package dirsync.sync;
+
+/**
+ * The management interface of the running synchronization (see
+ * <code>SyncMonitor</code>).
+ * 
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public interface SyncMonitorMBean {
+
+	/**
+	 * @return The state of the synchronization: "stop", "stopping", "start"
+	 *         or "pause".
+	 */
+	String getState();
+
+	/**
+	 * @return The mode of the synchronization: "synchronization" or
+	 *         "preview".
+	 */
+	String getMode();
+
+	/**
+	 * @return The names of the directory definitions currently synchronized.
+	 */
+	String[] getCurrentDirectories();
+
+	/**
+	 * @return The number of files processed.
+	 */
+	long getFilesScanned();
+
+	/**
+	 * @return The number of files to process (<code>0</code> if unknown).
+	 */
+	long getFilesTotal();
+
+	/**
+	 * @return The number of files copied.
+	 */
+	long getFilesCopied();
+
+	/**
+	 * @return The number of files and directories deleted.
+	 */
+	long getFilesDeleted();
+
+	/**
+	 * @return The number of bytes copied.
+	 */
+	long getBytesCopied();
+
+	/**
+	 * @return The bytes copied per second (moving average).
+	 */
+	double getBytesPerSecond();
+
+	/**
+	 * @return The files processed per second (moving average).
+	 */
+	double getFilesPerSecond();
+
+	/**
+	 * @return The number of files waiting in the queues of the copy
+	 *         pipelines.
+	 */
+	int getCopyQueueSize();
+
+	/**
+	 * @return The number of lines waiting to be written to the global log.
+	 */
+	int getLogQueueSize();
+
+	/**
+	 * @return The time spent in the phases of the directory definitions.
+	 */
+	String getPhaseTimes();
+
+	/**
+	 * Pauses the running synchronization.
+	 */
+	void pause();
+
+	/**
+	 * Resumes the paused synchronization.
+	 */
+	void resume();
+
+	/**
+	 * Stops the running synchronization.
+	 */
+	void stop();
+}
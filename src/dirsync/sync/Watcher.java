@@ -0,0 +1,262 @@
+/*
+ * Watcher.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dirsync.Const;
+import dirsync.DirSync;
+import dirsync.directory.Directory;
+
+/**
+ * Watches the source directories of all enabled directory definitions and
+ * synchronizes the changes (watch mode). Events are collected until no
+ * further event arrives for a short time (<code>dirsync.watch.delay</code>
+ * milliseconds, but at most <code>dirsync.watch.maxdelay</code>
+ * milliseconds), so that a burst of changes is synchronized at once and every
+ * changed directory only once. If events have been lost, the whole directory
+ * definition is synchronized again.
+ * <p>
+ * The destination manifests changed by the synchronized changes are kept in
+ * memory and written when no event arrives for
+ * <code>dirsync.watch.savedelay</code> milliseconds, but at least every
+ * <code>dirsync.watch.saveinterval</code> milliseconds.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class Watcher {
+
+	private final Sync sync;
+
+	private final WatchService service;
+
+	// the watched directories: WatchKey -> Object[] {Directory, File}
+	private final Map keys = new HashMap();
+
+	/**
+	 * Initializes a new Watcher.
+	 *
+	 * @param sync
+	 *            The synchronization that synchronizes the changes.
+	 * @throws IOException
+	 */
+	Watcher(Sync sync) throws IOException {
+		this.sync = sync;
+		this.service = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Registers the source directories of all enabled directory definitions
+	 * and synchronizes their changes until the thread is interrupted.
+	 *
+	 * @throws IOException
+	 */
+	void watch() throws IOException {
+		int watched = 0;
+
+		for (Iterator iter = sync.getDirs().iterator(); iter.hasNext();) {
+			Directory dir = (Directory) iter.next();
+
+			if (dir.isEnabled()) {
+				File src = new File(dir.getSrc());
+				if (src.isDirectory()) {
+					register(dir, src);
+					watched++;
+				} else {
+					DirSync.getLog().print("Can't watch directory '" + dir.getName()
+							+ "': source directory '" + src.getAbsolutePath()
+							+ "' doesn't exist or isn't a directory!", Const.STYLE_WARNING);
+				}
+			}
+		}
+
+		DirSync.getLog().print("");
+		DirSync.getLog().print("* Watching " + watched + " director" + (watched == 1 ? "y" : "ies")
+				+ " (" + keys.size() + " source directories) for changes *", Const.STYLE_SYNC);
+		DirSync.getLog().print("");
+
+		long delay = Math.max(0, DirSync.getIntProperty("dirsync.watch.delay", 1000));
+		long maxDelay = Math.max(delay, DirSync.getIntProperty("dirsync.watch.maxdelay", 10000));
+		long saveDelay = Math.max(0, DirSync.getIntProperty("dirsync.watch.savedelay", 10000));
+		long saveInterval = Math.max(saveDelay, DirSync.getIntProperty("dirsync.watch.saveinterval", 300000));
+
+		// the time of the first change not yet written to the manifests
+		long unsaved = -1;
+
+		try {
+			while (!keys.isEmpty()) {
+				// Directory -> (File -> Boolean) or null (whole directory)
+				Map changes = new LinkedHashMap();
+
+				WatchKey first = (unsaved < 0) ? service.take()
+						: service.poll(saveDelay, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					// idle: write the manifests
+					sync.saveManifests();
+					unsaved = -1;
+					continue;
+				}
+				collect(first, changes);
+
+				// wait until the changes are complete
+				long start = System.currentTimeMillis();
+				WatchKey key;
+				while (System.currentTimeMillis() - start < maxDelay
+						&& (key = service.poll(delay, TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changes);
+				}
+
+				if (!changes.isEmpty()) {
+					sync.setState(Sync.START);
+					sync.synchronizeChanges(changes);
+
+					if (unsaved < 0) {
+						unsaved = System.currentTimeMillis();
+					} else if (System.currentTimeMillis() - unsaved >= saveInterval) {
+						sync.saveManifests();
+						unsaved = -1;
+					}
+
+					// directories created while the events were lost
+					for (Iterator iter = changes.entrySet().iterator(); iter.hasNext();) {
+						Map.Entry entry = (Map.Entry) iter.next();
+						if (entry.getValue() == null) {
+							Directory dir = (Directory) entry.getKey();
+							register(dir, new File(dir.getSrc()));
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop watching
+		} finally {
+			sync.saveManifests();
+			service.close();
+		}
+	}
+
+	/**
+	 * Collects the events of the given key.
+	 *
+	 * @param key
+	 *            The signalled key.
+	 * @param changes
+	 *            The changes collected so far.
+	 */
+	private void collect(WatchKey key, Map changes) {
+		Object[] watched = (Object[]) keys.get(key);
+
+		if (watched == null) {
+			key.cancel();
+			return;
+		}
+
+		Directory dir = (Directory) watched[0];
+		File file = (File) watched[1];
+
+		// whole directory is synchronized anyway
+		boolean rescan = changes.containsKey(dir) && changes.get(dir) == null;
+
+		Map changedDirs = (Map) changes.get(dir);
+		if (changedDirs == null && !rescan) {
+			changedDirs = new LinkedHashMap();
+			changes.put(dir, changedDirs);
+		}
+
+		for (Iterator iter = key.pollEvents().iterator(); iter.hasNext();) {
+			WatchEvent event = (WatchEvent) iter.next();
+
+			if (rescan) {
+				continue;
+			}
+
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events have been lost: synchronize the whole directory
+				DirSync.getLog().print("Events lost while watching '" + file.getAbsolutePath()
+						+ "': synchronizing directory '" + dir.getName() + "'.", Const.STYLE_WARNING);
+				changes.put(dir, null);
+				rescan = true;
+				continue;
+			}
+
+			File child = new File(file, ((Path) event.context()).toString());
+
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& dir.isWithSubfolders() && child.isDirectory()
+					&& dir.isSynchronized(child)) {
+				// new directory: watch it and synchronize it completely
+				register(dir, child);
+				changedDirs.put(child, Boolean.TRUE);
+			}
+
+			if (!changedDirs.containsKey(file)) {
+				changedDirs.put(file, Boolean.FALSE);
+			}
+		}
+
+		if (!key.reset()) {
+			// the directory has been deleted (or can't be watched anymore)
+			keys.remove(key);
+		}
+	}
+
+	/**
+	 * Watches the given source directory and (if the directory definition
+	 * includes subfolders) its synchronized subdirectories.
+	 *
+	 * @param dir
+	 *            The directory definition.
+	 * @param file
+	 *            The source directory.
+	 */
+	private void register(Directory dir, File file) {
+		try {
+			WatchKey key = file.toPath().register(service,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			keys.put(key, new Object[] { dir, file });
+		} catch (IOException e) {
+			DirSync.getLog().print("Can't watch '" + file.getAbsolutePath() + "': " + e.getMessage(),
+					Const.STYLE_WARNING);
+			return;
+		}
+
+		if (dir.isWithSubfolders()) {
+			File[] subdirs = dir.listSubdirectories(file);
+			for (int i = 0; i < subdirs.length; i++) {
+				register(dir, subdirs[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * BufferPool.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.tools;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dirsync.DirSync;
+
+/**
+ * A pool of direct buffers for copying, comparing and verifying files. Every
+ * operation leases its own buffer and releases it when it is finished, so
+ * files can be copied and verified by several threads at once.
+ * <p>
+ * The buffers are <code>dirsync.buffer.size</code> bytes large; at most
+ * <code>dirsync.buffer.count</code> released buffers are kept for reuse. If
+ * no released buffer is available a new one is allocated (a miss).
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class BufferPool {
+
+	private static BufferPool pool;
+
+	private final int bufferSize;
+
+	private final int count;
+
+	// the released buffers
+	private final BlockingQueue free;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	// the number of buffers leased at the moment and the maximum of it
+	private final AtomicInteger leased = new AtomicInteger();
+
+	private final AtomicInteger peak = new AtomicInteger();
+
+	/**
+	 * Initializes a new BufferPool.
+	 *
+	 * @param bufferSize
+	 *            The size of a buffer in bytes.
+	 * @param count
+	 *            The maximum number of buffers kept for reuse.
+	 */
+	BufferPool(int bufferSize, int count) {
+		this.bufferSize = Math.max(4096, bufferSize);
+		this.count = Math.max(1, count);
+		this.free = new ArrayBlockingQueue(this.count);
+	}
+
+	/**
+	 * Gets the buffer pool of the program.
+	 *
+	 * @return The buffer pool.
+	 */
+	public static synchronized BufferPool getPool() {
+		if (pool == null) {
+			pool = new BufferPool(DirSync.getIntProperty("dirsync.buffer.size", 1024 * 1024),
+					DirSync.getIntProperty("dirsync.buffer.count", 16));
+		}
+		return pool;
+	}
+
+	/**
+	 * Leases a buffer. The buffer must be given back with
+	 * <code>release()</code> when it isn't used anymore.
+	 *
+	 * @return The (cleared) buffer.
+	 */
+	public ByteBuffer lease() {
+		ByteBuffer buffer = (ByteBuffer) free.poll();
+
+		if (buffer != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+		}
+
+		int n = leased.incrementAndGet();
+		int max;
+		while (n > (max = peak.get()) && !peak.compareAndSet(max, n)) {
+			// another thread raised the peak: try again
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Gives back a leased buffer. The buffer is kept for reuse unless the
+	 * pool is full.
+	 *
+	 * @param buffer
+	 *            The buffer or <code>null</code>.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		leased.decrementAndGet();
+		buffer.clear();
+		free.offer(buffer);
+	}
+
+	/**
+	 * Resets the statistics (at the start of a synchronization).
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		peak.set(leased.get());
+	}
+
+	/**
+	 * @return The size of a buffer in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return The maximum number of buffers kept for reuse.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The number of leases served by a released buffer.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of leases that allocated a new buffer.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The maximum number of buffers leased at once.
+	 */
+	public int getPeak() {
+		return peak.get();
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Checkpoint.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Checksum;
+
+/**
+ * The checkpoint of an interrupted copy of a large file: the source file
+ * (path, size and modification date), the number of bytes copied into the
+ * partial file and the hash of these bytes. The checkpoint is stored next to
+ * the partial file and lets the next synchronization continue the copy
+ * instead of starting again.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+class Checkpoint {
+
+	// identifies the file format
+	private static final String MAGIC = "DirSync checkpoint 1";
+
+	private final File file;
+
+	/**
+	 * Initializes a new Checkpoint.
+	 *
+	 * @param dstFile
+	 *            The destination file of the copy.
+	 */
+	Checkpoint(File dstFile) {
+		this.file = new File(dstFile.getParentFile(), "." + dstFile.getName() + FileTools.RESUME_SUFFIX);
+	}
+
+	/**
+	 * Reads the checkpoint and checks the partial file against it.
+	 *
+	 * @param srcFile
+	 *            The source file.
+	 * @param length
+	 *            The current size of the source file.
+	 * @param lastModified
+	 *            The current modification date of the source file.
+	 * @param partFile
+	 *            The partial file.
+	 * @param hash
+	 *            The (new) hash to update with the bytes of the partial
+	 *            file.
+	 * @param checksum
+	 *            The checksum of the copy to update with the bytes of the
+	 *            partial file or <code>null</code>.
+	 * @return The number of bytes the copy can continue at;
+	 *         <code>0</code> if there is no checkpoint, if the source file
+	 *         has changed, or if the partial file doesn't match the
+	 *         checkpoint.
+	 */
+	long resume(File srcFile, long length, long lastModified, File partFile,
+			Checksum hash, Checksum checksum) {
+		if (!file.isFile() || !partFile.isFile()) {
+			return 0;
+		}
+
+		long offset;
+		long value;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			// a checkpoint of another or a changed source file is worthless
+			if (!in.readUTF().equals(MAGIC)
+					|| !in.readUTF().equals(srcFile.getAbsolutePath())
+					|| in.readLong() != length
+					|| in.readLong() != lastModified) {
+				return 0;
+			}
+			offset = in.readLong();
+			value = in.readLong();
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		if (offset <= 0 || offset > length || partFile.length() < offset) {
+			return 0;
+		}
+
+		// the partial file must still hold the copied bytes
+		ByteBuffer buffer = BufferPool.getPool().lease();
+		FileInputStream part = null;
+		try {
+			part = new FileInputStream(partFile);
+			FileChannel channel = part.getChannel();
+			long position = 0;
+			while (position < offset) {
+				buffer.limit((int) Math.min(buffer.capacity(), offset - position));
+				int n = channel.read(buffer);
+				if (n == -1) {
+					return 0;
+				}
+				buffer.flip();
+				hash.update(buffer);
+				if (checksum != null) {
+					buffer.rewind();
+					checksum.update(buffer);
+				}
+				buffer.clear();
+				position += n;
+			}
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			BufferPool.getPool().release(buffer);
+			if (part != null) {
+				try {
+					part.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return (hash.getValue() == value) ? offset : 0;
+	}
+
+	/**
+	 * Writes the checkpoint.
+	 *
+	 * @param srcFile
+	 *            The source file.
+	 * @param length
+	 *            The size of the source file.
+	 * @param lastModified
+	 *            The modification date of the source file.
+	 * @param offset
+	 *            The number of bytes copied into the partial file.
+	 * @param value
+	 *            The hash of the copied bytes.
+	 * @throws IOException
+	 */
+	void save(File srcFile, long length, long lastModified, long offset, long value) throws IOException {
+		// a checkpoint is replaced only by a complete one
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+
+		try {
+			out.writeUTF(MAGIC);
+			out.writeUTF(srcFile.getAbsolutePath());
+			out.writeLong(length);
+			out.writeLong(lastModified);
+			out.writeLong(offset);
+			out.writeLong(value);
+		} finally {
+			out.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the checkpoint.
+	 */
+	void delete() {
+		file.delete();
+	}
+}
@@ -0,0 +1,507 @@
+/*
+ * CopyEngine.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Checksum;
+
+import dirsync.DirSync;
+import dirsync.exceptions.WarningException;
+
+/**
+ * A strategy to copy the contents of a file. The engine used for a file is
+ * chosen by {@link #select(File, File, long, boolean)}:
+ * <ul>
+ * <li>files up to <code>dirsync.copy.smallfile</code> bytes are read at once
+ * (<code>small</code>),</li>
+ * <li>files of at least <code>dirsync.copy.largefile</code> bytes copied to
+ * another file system are copied by <code>FileChannel.transferTo()</code>
+ * (<code>transfer</code>),</li>
+ * <li>all other files are copied through a pooled buffer
+ * (<code>stream</code>), or by <code>transferTo()</code> if
+ * <code>dirsync.NIO</code> is set.</li>
+ * </ul>
+ * The thresholds follow <code>CopyEngineBenchmark</code>: within a file
+ * system the buffer was about twice as fast as <code>transferTo()</code>
+ * for files of 1 MB and more, between file systems <code>transferTo()</code>
+ * was faster by 15 to 40 percent; reading small files at once never clearly
+ * won (so <code>dirsync.copy.smallfile</code> defaults to 0).
+ * Setting <code>dirsync.copy.engine</code> to the name of an engine uses
+ * this engine for all files. The engine <code>files</code>
+ * (<code>Files.copy()</code>) is only used if chosen this way: it replaces
+ * the destination file instead of writing into it (a link is replaced
+ * rather than written through; owner, permissions and hard links of the
+ * existing file are lost) and can't be paused or stopped within a file. If
+ * a checksum of the copied bytes is needed (verify) an engine that doesn't
+ * pass the bytes through the program is replaced by <code>stream</code>.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public abstract class CopyEngine {
+
+	/** Copies through a pooled buffer. */
+	public static final CopyEngine STREAM = new StreamEngine();
+
+	/** Copies the whole file with <code>FileChannel.transferTo()</code>. */
+	public static final CopyEngine TRANSFER = new TransferEngine();
+
+	/** Copies with <code>Files.copy()</code>. */
+	public static final CopyEngine FILES = new FilesEngine();
+
+	/** Copies from a memory mapped source file. */
+	public static final CopyEngine MAPPED = new MappedEngine();
+
+	/** Reads the whole file at once. */
+	public static final CopyEngine SMALL = new SmallFileEngine();
+
+	private static final CopyEngine[] ENGINES = { STREAM, TRANSFER, FILES,
+			MAPPED, SMALL };
+
+	// the size of the mapped regions of the memory mapped copy
+	private static final int MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+
+	// the portions transferred at once; otherwise system resources (buffers,
+	// RAM) can run out and the progress isn't updated within a file
+	private static final int BUFFER_SIZE = 1 * 1024 * 1024;
+
+	// the source and destination directory of the last file copied by a
+	// thread and whether they are on the same file system
+	private static final ThreadLocal lastFileSystems = new ThreadLocal();
+
+	private final String name;
+
+	/**
+	 * Initializes a new CopyEngine.
+	 *
+	 * @param name
+	 *            The name of the engine.
+	 */
+	protected CopyEngine(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Gets the name of the engine (as used in <code>dirsync.properties</code>).
+	 *
+	 * @return The name of the engine.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns if the engine can calculate a checksum of the copied bytes.
+	 *
+	 * @return <code>true</code> if a checksum can be calculated.
+	 */
+	public boolean supportsChecksum() {
+		return true;
+	}
+
+	/**
+	 * Copies the contents of the source file to the destination file (which
+	 * is created or overwritten).
+	 *
+	 * @param src
+	 *            The source file.
+	 * @param dst
+	 *            The destination file.
+	 * @param checksum
+	 *            The checksum to update with the copied bytes or
+	 *            <code>null</code>.
+	 * @throws IOException
+	 * @throws WarningException
+	 *             If a file can't be opened.
+	 */
+	public abstract void copy(File src, File dst, Checksum checksum)
+			throws IOException, WarningException;
+
+	/**
+	 * Returns the name of the engine.
+	 *
+	 * @return The name of the engine.
+	 */
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Gets the engine with the given name.
+	 *
+	 * @param name
+	 *            The name of the engine.
+	 * @return The engine or <code>null</code> if there is no engine with
+	 *         this name.
+	 */
+	public static CopyEngine forName(String name) {
+		for (int i = 0; i < ENGINES.length; i++) {
+			if (ENGINES[i].getName().equalsIgnoreCase(name)) {
+				return ENGINES[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets all engines.
+	 *
+	 * @return The engines.
+	 */
+	public static CopyEngine[] getEngines() {
+		return ENGINES.clone();
+	}
+
+	/**
+	 * Chooses the engine to copy the given file (see above).
+	 *
+	 * @param src
+	 *            The source file.
+	 * @param dst
+	 *            The destination file.
+	 * @param size
+	 *            The size of the source file.
+	 * @param checksum
+	 *            <code>true</code> if the engine has to calculate a checksum.
+	 * @return The engine.
+	 */
+	public static CopyEngine select(File src, File dst, long size,
+			boolean checksum) {
+		CopyEngine engine = null;
+
+		if (DirSync.getProperties() != null) {
+			engine = forName(DirSync.getProperties().getProperty(
+					"dirsync.copy.engine", "auto"));
+		}
+
+		if (engine == null) { // auto
+			if (size <= DirSync.getIntProperty("dirsync.copy.smallfile", 0)) {
+				engine = SMALL;
+			} else if (DirSync.getBooleanProperty("dirsync.NIO", false)) {
+				engine = TRANSFER;
+			} else if (size >= DirSync.getIntProperty("dirsync.copy.largefile", 1048576)
+					&& !sameFileSystem(src, dst)) {
+				engine = TRANSFER;
+			} else {
+				engine = STREAM;
+			}
+		}
+
+		if (checksum && !engine.supportsChecksum()) {
+			engine = STREAM;
+		}
+
+		return engine;
+	}
+
+	/**
+	 * Checks if the source and the destination file are on the same file
+	 * system. The result for the directories of the last file is remembered
+	 * (per thread), because the files of a directory are copied one after
+	 * another.
+	 *
+	 * @param src
+	 *            The source file.
+	 * @param dst
+	 *            The destination file.
+	 * @return <code>true</code> if both are on the same file system (or it
+	 *         can't be determined).
+	 */
+	private static boolean sameFileSystem(File src, File dst) {
+		File srcDir = src.getAbsoluteFile().getParentFile();
+		File dstDir = dst.getAbsoluteFile().getParentFile();
+		Object[] last = (Object[]) lastFileSystems.get();
+
+		if (last != null && last[0].equals(srcDir) && last[1].equals(dstDir)) {
+			return ((Boolean) last[2]).booleanValue();
+		}
+
+		boolean same;
+		try {
+			same = Files.getFileStore(srcDir.toPath()).equals(
+					Files.getFileStore(dstDir.toPath()));
+		} catch (IOException e) {
+			same = true; // keep the default engine
+		}
+
+		lastFileSystems.set(new Object[] { srcDir, dstDir, Boolean.valueOf(same) });
+		return same;
+	}
+
+	/**
+	 * Opens the source file.
+	 *
+	 * @param src
+	 *            The source file.
+	 * @return The input stream.
+	 * @throws WarningException
+	 *             If the file can't be opened.
+	 */
+	protected static FileInputStream openInput(File src) throws WarningException {
+		try {
+			return new FileInputStream(src);
+		} catch (FileNotFoundException fnfe) {
+			throw new WarningException("Could not open input stream for file '" + src + "' (probably because it is being used by another process)");
+		}
+	}
+
+	/**
+	 * Opens (and truncates) the destination file.
+	 *
+	 * @param src
+	 *            The source file (for the message).
+	 * @param dst
+	 *            The destination file.
+	 * @return The output stream.
+	 * @throws WarningException
+	 *             If the file can't be opened.
+	 */
+	protected static FileOutputStream openOutput(File src, File dst) throws WarningException {
+		try {
+			return new FileOutputStream(dst);
+		} catch (FileNotFoundException fnfe) {
+			throw new WarningException("Could not open output stream for file '" + dst + "' (probably because access to the source file '" + src
+					+ "' is denied)");
+		}
+	}
+
+	/**
+	 * Adds the given number of bytes to the progress of the synchronization.
+	 *
+	 * @param copied
+	 *            The number of bytes copied since the last call.
+	 */
+	protected static void progress(long copied) {
+		Progress.getProgress().bytesCopied(copied);
+	}
+
+	/**
+	 * Closes the given streams (errors are ignored).
+	 */
+	protected static void close(FileInputStream in, FileOutputStream out) {
+		try {
+			if (in != null) {
+				in.close();
+			}
+		} catch (IOException e) {
+		}
+		try {
+			if (out != null) {
+				out.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Copies through a buffer leased from the {@link BufferPool}.
+	 */
+	private static class StreamEngine extends CopyEngine {
+
+		StreamEngine() {
+			super("stream");
+		}
+
+		public void copy(File src, File dst, Checksum checksum)
+				throws IOException, WarningException {
+			FileInputStream in = null;
+			FileOutputStream out = null;
+			ByteBuffer buffer = null;
+
+			try {
+				in = openInput(src);
+				out = openOutput(src, dst);
+
+				FileChannel inChannel = in.getChannel();
+				FileChannel outChannel = out.getChannel();
+				buffer = BufferPool.getPool().lease();
+				int copied;
+				while ((copied = inChannel.read(buffer)) != -1) {
+					buffer.flip();
+					if (checksum != null) {
+						checksum.update(buffer);
+						buffer.rewind();
+					}
+					while (buffer.hasRemaining()) {
+						outChannel.write(buffer);
+					}
+					buffer.clear();
+					progress(copied);
+				}
+			} finally {
+				BufferPool.getPool().release(buffer);
+				close(in, out);
+			}
+		}
+	}
+
+	/**
+	 * Copies the whole file with <code>FileChannel.transferTo()</code>.
+	 */
+	private static class TransferEngine extends CopyEngine {
+
+		TransferEngine() {
+			super("transfer");
+		}
+
+		public boolean supportsChecksum() {
+			return false;
+		}
+
+		public void copy(File src, File dst, Checksum checksum)
+				throws IOException, WarningException {
+			FileInputStream in = null;
+			FileOutputStream out = null;
+
+			try {
+				in = openInput(src);
+				out = openOutput(src, dst);
+
+				FileChannel inChannel = in.getChannel();
+				FileChannel outChannel = out.getChannel();
+				long size = inChannel.size();
+				long position = 0;
+
+				// in portions of BUFFER_SIZE; transferTo() may copy less than
+				// requested
+				while (position < size) {
+					long copied = inChannel.transferTo(position,
+							Math.min(size - position, BUFFER_SIZE), outChannel);
+					if (copied <= 0) {
+						break; // file truncated while copying
+					}
+					position += copied;
+					progress(copied);
+				}
+			} finally {
+				close(in, out);
+			}
+		}
+	}
+
+	/**
+	 * Copies with <code>Files.copy()</code>.
+	 */
+	private static class FilesEngine extends CopyEngine {
+
+		FilesEngine() {
+			super("files");
+		}
+
+		public boolean supportsChecksum() {
+			return false;
+		}
+
+		public void copy(File src, File dst, Checksum checksum)
+				throws IOException, WarningException {
+			try {
+				Files.copy(src.toPath(), dst.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (FileSystemException fse) {
+				throw new WarningException("Could not copy file '" + src + "' to '" + dst + "' (" + fse.getMessage() + ")");
+			}
+			progress(dst.length());
+		}
+	}
+
+	/**
+	 * Copies from a memory mapped source file.
+	 */
+	private static class MappedEngine extends CopyEngine {
+
+		MappedEngine() {
+			super("mmap");
+		}
+
+		public void copy(File src, File dst, Checksum checksum)
+				throws IOException, WarningException {
+			FileInputStream in = null;
+			FileOutputStream out = null;
+
+			try {
+				in = openInput(src);
+				out = openOutput(src, dst);
+
+				FileChannel inChannel = in.getChannel();
+				FileChannel outChannel = out.getChannel();
+				long size = inChannel.size();
+
+				for (long position = 0; position < size;) {
+					MappedByteBuffer region = inChannel.map(
+							FileChannel.MapMode.READ_ONLY, position, Math.min(
+									MAPPED_REGION_SIZE, size - position));
+					if (checksum != null) {
+						checksum.update(region.duplicate());
+					}
+					int copied = region.remaining();
+					while (region.hasRemaining()) {
+						outChannel.write(region);
+					}
+					position += copied;
+					progress(copied);
+				}
+			} finally {
+				close(in, out);
+			}
+		}
+	}
+
+	/**
+	 * Reads the whole file at once.
+	 */
+	private static class SmallFileEngine extends CopyEngine {
+
+		SmallFileEngine() {
+			super("small");
+		}
+
+		public void copy(File src, File dst, Checksum checksum)
+				throws IOException, WarningException {
+			FileInputStream in = null;
+			FileOutputStream out = null;
+
+			try {
+				in = openInput(src);
+				byte[] bytes = in.readAllBytes();
+				in.close();
+				in = null;
+
+				out = openOutput(src, dst);
+				out.write(bytes);
+				if (checksum != null) {
+					checksum.update(bytes, 0, bytes.length);
+				}
+				progress(bytes.length);
+			} finally {
+				close(in, out);
+			}
+		}
+	}
+}
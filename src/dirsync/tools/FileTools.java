@@ -22,11 +22,17 @@
 package dirsync.tools;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.channels.FileChannel;
-// import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.zip.*;
 
+import dirsync.Const;
 import dirsync.DirSync;
 import dirsync.directory.DirectoryLister;
 import dirsync.exceptions.ErrorException;
@@ -39,10 +45,15 @@ import dirsync.exceptions.WarningException;
  */
 public abstract class FileTools {
 
-	private static final int BUFFER_SIZE = 1 * 1024 * 1024;
+	// the suffix of the temporary file of a copy (see getTempFile())
+	private static final String TEMP_SUFFIX = ".dirsync-tmp";
 
-	// a buffer for the copy method
-	private static byte[] buffers = new byte[BUFFER_SIZE];
+	// the suffix of the checkpoint of a resumable copy (see Checkpoint)
+	static final String RESUME_SUFFIX = ".dirsync-resume";
+
+	// the files DirSync keeps next to a destination file
+	private static final String[] WORK_SUFFIXES = { TEMP_SUFFIX, RESUME_SUFFIX,
+			RESUME_SUFFIX + ".tmp" };
 
 	// Don't let anyone instantiate this class.
 	private FileTools() {
@@ -62,17 +73,46 @@ public abstract class FileTools {
 	 *         exist <code>false</code> is returned.
 	 */
 	public static boolean cmpFileDates(File src, File dst) {
-		long srcLastModified, dstLastModified;
+		return cmpFileDates(src.lastModified(), dst);
+	}
 
-		if (!dst.exists()) {
+	/**
+	 * Compares the given date of a source file with the date of the given
+	 * file (see {@link #cmpFileDates(File, File)}).
+	 * 
+	 * @param srcLastModified
+	 *            The modification date of the source file.
+	 * @param dst
+	 *            The destination file.
+	 * @return boolean <code>true</code> if the source file is newer than the
+	 *         destination file, <code>false</code> else. If the destination
+	 *         file doesn't exist <code>false</code> is returned.
+	 */
+	public static boolean cmpFileDates(long srcLastModified, File dst) {
+		long dstLastModified = dst.lastModified();
+
+		// lastModified() is 0 if the file doesn't exist
+		if (dstLastModified == 0 && !dst.exists()) {
 			return false;
 		}
 
-		srcLastModified = src.lastModified() / 1000;
-		// convert to seconds
-		dstLastModified = dst.lastModified() / 1000;
+		return cmpFileDates(srcLastModified, dstLastModified);
+	}
+
+	/**
+	 * Compares the given dates of a source and an existing destination file
+	 * (see {@link #cmpFileDates(File, File)}).
+	 * 
+	 * @param srcLastModified
+	 *            The modification date of the source file.
+	 * @param dstLastModified
+	 *            The modification date of the destination file.
+	 * @return boolean <code>true</code> if the source file is newer than the
+	 *         destination file, <code>false</code> else.
+	 */
+	public static boolean cmpFileDates(long srcLastModified, long dstLastModified) {
 		// convert to seconds
-		return srcLastModified > dstLastModified + DirSync.getSync().getMaxTimestampDiff();
+		return srcLastModified / 1000 > dstLastModified / 1000 + DirSync.getSync().getMaxTimestampDiff();
 	}
 
 	/**
@@ -87,10 +127,45 @@ public abstract class FileTools {
 	 *         exist <code>false</code> is returned.
 	 */
 	public static boolean cmpFileSizes(File src, File dst) {
-		if (!dst.exists()) {
+		return cmpFileSizes(src.length(), dst);
+	}
+
+	/**
+	 * Compares the given size of a source file with the size of the given
+	 * file.
+	 * 
+	 * @param srcLength
+	 *            The size of the source file.
+	 * @param dst
+	 *            The destination file.
+	 * @return boolean <code>true</code> if the source file is larger than the
+	 *         destination file, <code>false</code> else. If the destination
+	 *         file doesn't exist <code>false</code> is returned.
+	 */
+	public static boolean cmpFileSizes(long srcLength, File dst) {
+		long dstLength = dst.length();
+
+		// length() is 0 if the file doesn't exist
+		if (dstLength == 0 && !dst.exists()) {
 			return false;
 		}
-		return src.length() > dst.length();
+		return srcLength > dstLength;
+	}
+
+	/**
+	 * Reads the attributes of the given file (symbolic links are followed).
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The attributes of the file or <code>null</code> if the file
+	 *         doesn't exist or can't be read.
+	 */
+	public static BasicFileAttributes readAttributes(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
 	}
 
 	/**
@@ -105,6 +180,33 @@ public abstract class FileTools {
 	 * @throws ErrorException
 	 */
 	public static void copy(File srcFile, File dstFile) throws IOException, WarningException, ErrorException {
+		copy(srcFile, dstFile, null);
+	}
+
+	/**
+	 * Copies the source file to the given destination with the same filename
+	 * and calculates the checksum of the copied bytes while copying, so that
+	 * the source file doesn't have to be read again to verify the copy.
+	 * <p>
+	 * If <code>dirsync.copy.atomic</code> is set the file is copied to a
+	 * temporary file next to the destination (see {@link #getTempFile(File)})
+	 * which then replaces the destination file, so an interrupted copy never
+	 * leaves a partly written destination file behind. The files are forced
+	 * to disk as configured by <code>dirsync.copy.fsync</code> (see
+	 * {@link Fsync}).
+	 * 
+	 * @param srcFile
+	 *            The file to copy.
+	 * @param dstFile
+	 *            The destination (where to copy the source file).
+	 * @param checksum
+	 *            The checksum to update with the copied bytes or
+	 *            <code>null</code>.
+	 * @throws IOException
+	 * @throws WarningException
+	 * @throws ErrorException
+	 */
+	public static void copy(File srcFile, File dstFile, Checksum checksum) throws IOException, WarningException, ErrorException {
 
 		long lastModified;
 
@@ -130,125 +232,287 @@ public abstract class FileTools {
 			dstFile.getParentFile().mkdirs();
 		}
 
+		// the file written by the copy engine
+		boolean atomic = DirSync.getBooleanProperty("dirsync.copy.atomic", false);
+		File target = atomic ? getTempFile(dstFile) : dstFile;
+
 		if (dstFile.exists()) { // does the destination file already exist?
 
 			// can the existing destination file be overwritten ?
 			if (!dstFile.canWrite()) {
 				throw new ErrorException("Destination file can't be overwritten.");
 			}
-		} else {
+		}
+		if (!target.exists()) {
 
 			// can the not existing destination file be created?
 			try {
-				dstFile.createNewFile();
+				target.createNewFile();
 			} catch (Exception e) {
 				throw new ErrorException("Destination file can't be created.");
 			}
 		}
 
-		// everything ok: copy
+		// everything ok: copy with the engine suitable for the file
+		long size = srcFile.length();
+		CopyEngine engine = CopyEngine.select(srcFile, target, size, checksum != null);
 
-		// The input stream
-		FileInputStream in = null;
-		// The output stream
-		FileOutputStream out = null;
+		Progress.getProgress().fileStarted(null, srcFile, size);
+
+		boolean complete = false;
+		try {
+			engine.copy(srcFile, target, checksum);
+
+			// copy the file modification date
+			lastModified = srcFile.lastModified();
+			// solves the problem of files without modification time on NTFS
+			if (lastModified < 0) {
+				lastModified = 0;
+			}
+			target.setLastModified(lastModified);
+
+			Fsync.dataWritten(target);
+			if (atomic) {
+				replace(target, dstFile);
+			}
+			complete = true;
+		} finally {
+			if (atomic && !complete) {
+				target.delete();
+			}
+		}
+		Fsync.replaced(dstFile);
+
+	}
+
+	/**
+	 * Copies a large source file so that an interrupted copy can be continued
+	 * by the next synchronization. The file is copied to the temporary file
+	 * (see {@link #getTempFile(File)}) which replaces the destination file
+	 * when it is complete. Every <code>dirsync.copy.checkpoint</code> bytes,
+	 * and when the copy is stopped or fails, a {@link Checkpoint} records the
+	 * number of bytes copied and their hash.
+	 * <p>
+	 * The next copy of the file continues at the checkpoint if the source
+	 * file still has the recorded size and modification date and the
+	 * partial file still holds the recorded bytes; otherwise the partial file
+	 * is discarded and the copy starts again.
+	 * 
+	 * @param srcFile
+	 *            The file to copy.
+	 * @param dstFile
+	 *            The destination (where to copy the source file).
+	 * @param checksum
+	 *            The checksum to update with the bytes of the source file or
+	 *            <code>null</code>.
+	 * @return The number of bytes the copy continued at (<code>0</code> if
+	 *         the whole file has been copied).
+	 * @throws IOException
+	 * @throws WarningException
+	 * @throws ErrorException
+	 */
+	public static long copyResumable(File srcFile, File dstFile, Checksum checksum) throws IOException, WarningException, ErrorException {
+
+		// does source file exist ?
+		if (!srcFile.exists()) {
+			throw new ErrorException("Source file not found.");
+		}
+
+		// is source file really a file ?
+		if (!srcFile.isFile()) {
+			throw new ErrorException("Source isn't a file.");
+		}
 
-		// The input channel
-		FileChannel inChannel = null;
-		// The output channel
-		FileChannel outChannel = null;
+		// can the source file be read ?
+		if (!srcFile.canRead()) {
+			throw new ErrorException("Source file can't be read.");
+		}
+
+		// create the destination directory if necessary
+		if ((dstFile.getParentFile() != null) && (!dstFile.getParentFile().isDirectory())) {
+			dstFile.getParentFile().mkdirs();
+		}
+
+		// can the existing destination file be overwritten ?
+		if (dstFile.exists() && !dstFile.canWrite()) {
+			throw new ErrorException("Destination file can't be overwritten.");
+		}
+
+		File target = getTempFile(dstFile);
+		Checkpoint checkpoint = new Checkpoint(dstFile);
+		long length = srcFile.length();
+		long lastModified = srcFile.lastModified();
+		long interval = Math.max(1024 * 1024, DirSync.getIntProperty("dirsync.copy.checkpoint", 67108864));
+
+		// continue an interrupted copy of the same source file
+		Checksum hash = new CRC32C();
+		long offset = checkpoint.resume(srcFile, length, lastModified, target, hash, checksum);
+		if (offset == 0) {
+			hash.reset();
+			if (checksum != null) {
+				checksum.reset();
+			}
+			checkpoint.delete();
+		}
+
+		// the bytes copied before aren't part of the progress
+		Progress.getProgress().fileStarted(null, srcFile, length - offset);
+
+		FileInputStream in = null;
+		FileChannel out = null;
+		ByteBuffer buffer = null;
+		long position = offset; // the bytes copied and hashed
+		boolean complete = false;
 
 		try {
 			try {
 				in = new FileInputStream(srcFile);
-				if (in == null) {
-					throw new WarningException("Could not open input stream for file '" + srcFile + "'");
-				}
 			} catch (FileNotFoundException fnfe) {
 				throw new WarningException("Could not open input stream for file '" + srcFile + "' (probably because it is being used by another process)");
 			}
 
 			try {
-				out = new FileOutputStream(dstFile);
-				if (out == null) {
-					throw new WarningException("Could not open output stream for file '" + dstFile + "'");
-				}
-			} catch (FileNotFoundException fnfe) {
-				throw new WarningException("Could not open output stream for file '" + dstFile + "' (probably because access to the source file '" + srcFile
-						+ "' is denied)");
+				out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			} catch (IOException e) {
+				throw new WarningException("Could not open output stream for file '" + dstFile + "'");
 			}
 
-			inChannel = in.getChannel(); // get in channel
-			outChannel = out.getChannel(); // get out channel
-
-			// init progress bar
-			if (DirSync.isGuiMode()) {
-				DirSync.getGui().setCurrentProgressText(srcFile.getName());
-				DirSync.getGui().setCurrentProgressMaximum((int) inChannel.size());
-			}
+			FileChannel inChannel = in.getChannel();
+			inChannel.position(offset);
+			out.truncate(offset);
+			out.position(offset);
+
+			buffer = BufferPool.getPool().lease();
+			long saved = offset;
+			boolean checkpoints = true;
+			while (inChannel.read(buffer) != -1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				buffer.rewind();
+				hash.update(buffer);
+				if (checksum != null) {
+					buffer.rewind();
+					checksum.update(buffer);
+				}
+				position += buffer.limit();
+				CopyEngine.progress(buffer.limit());
+				buffer.clear();
 
-			if (DirSync.getProperties().getProperty("dirsync.NIO", "false").equals("true")) {
-				// NIO: copy file in portions of x MB otherwise
-				// system resources (buffers, RAM) can run out
-				long copied = -1;
-				long position = 0;
-				while (copied != 0) {
-					copied = inChannel.transferTo(position, Math.min(inChannel.size() - position, BUFFER_SIZE), outChannel);
-					position += copied;
-					if (DirSync.isGuiMode()) {
-						DirSync.getGui().setCurrentProgress((int) position);
-					}
+				if (DirSync.getSync().isStopping()) {
+					throw new WarningException("Copy stopped after " + position + " of " + length
+							+ " bytes; it will be continued by the next synchronization.");
 				}
-			} else {
-				// einlesen der daten in den buffer und dann schreiben, so lange
-				// bis wir am ende des files sind (wenn read() '-1'
-				// zurueckgibt):
-				int position = 0;
-				int copied = 0;
-				while ((copied = in.read(buffers)) != -1) {
-					out.write(buffers, 0, copied); // Die daten schreiben
-					position += copied;
-					if (DirSync.isGuiMode()) {
-						DirSync.getGui().setCurrentProgress(position);
+				if (checkpoints && position - saved >= interval) {
+					try {
+						checkpoint.save(srcFile, length, lastModified, position, hash.getValue());
+						saved = position;
+					} catch (IOException e) {
+						// the copy itself is still fine
+						checkpoints = false;
+						DirSync.getLog().print("  WARNING: The checkpoint of '" + dstFile
+								+ "' could not be written (" + e.getMessage()
+								+ "); copying without checkpoints.", Const.STYLE_WARNING);
 					}
 				}
 			}
 
-			if (DirSync.isGuiMode()) {
-				DirSync.getGui().setCurrentProgress((int) inChannel.size());
-			}
+			out.close();
 
-			inChannel.close(); // close in channel
-			outChannel.close(); // close out channel
-
-			// copy the file modification date
-			lastModified = srcFile.lastModified();
 			// solves the problem of files without modification time on NTFS
-			if (lastModified < 0) {
-				lastModified = 0;
-			}
-			dstFile.setLastModified(lastModified);
+			target.setLastModified(Math.max(0, lastModified));
 
+			Fsync.dataWritten(target);
+			replace(target, dstFile);
+			complete = true;
 		} finally {
+			BufferPool.getPool().release(buffer);
 			try {
-				// always close the channels
-				if (inChannel != null) {
-					inChannel.close();
-				}
-				if (outChannel != null) {
-					outChannel.close();
-				}
-
-				// always close the streams
+				// always close the files
 				if (in != null) {
 					in.close();
 				}
 				if (out != null) {
 					out.close();
 				}
-			} catch (Exception e) {
+			} catch (IOException e) {
+			}
+
+			if (complete) {
+				checkpoint.delete();
+			} else if (position > 0) {
+				// remember the bytes copied for the next synchronization
+				try {
+					checkpoint.save(srcFile, length, lastModified, position, hash.getValue());
+				} catch (IOException e) {
+				}
 			}
 		}
+		Fsync.replaced(dstFile);
+
+		return offset;
+	}
+
+	/**
+	 * Gets the temporary file an atomic copy writes to before it replaces
+	 * the destination file. The temporary file is a hidden file in the
+	 * directory of the destination file; a temporary file left behind by an
+	 * interrupted synchronization is overwritten by the next copy (or deleted
+	 * once the source file no longer exists).
+	 * 
+	 * @param dstFile
+	 *            The destination file.
+	 * @return The temporary file.
+	 */
+	public static File getTempFile(File dstFile) {
+		return new File(dstFile.getParentFile(), "." + dstFile.getName() + TEMP_SUFFIX);
+	}
+
+	/**
+	 * Gets the destination file a work file of DirSync (the temporary file of
+	 * a copy or the checkpoint of a resumable copy) belongs to.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The destination file or <code>null</code> if the file isn't a
+	 *         work file.
+	 */
+	public static File getWorkFileTarget(File file) {
+		String name = file.getName();
+
+		if (name.startsWith(".")) {
+			for (int i = 0; i < WORK_SUFFIXES.length; i++) {
+				if (name.endsWith(WORK_SUFFIXES[i]) && name.length() > WORK_SUFFIXES[i].length() + 1) {
+					return new File(file.getParentFile(), name.substring(1, name.length()
+							- WORK_SUFFIXES[i].length()));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the destination file by the given file (in one step if the
+	 * file system supports it).
+	 * 
+	 * @param file
+	 *            The new file.
+	 * @param dstFile
+	 *            The destination file.
+	 * @throws WarningException
+	 */
+	private static void replace(File file, File dstFile) throws WarningException {
+		try {
+			try {
+				Files.move(file.toPath(), dstFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(file.toPath(), dstFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new WarningException("Could not replace file '" + dstFile + "' (" + e.getMessage() + ")");
+		}
 	}
 
 	/**
@@ -261,33 +525,42 @@ public abstract class FileTools {
 	 *            The file pattern to change.
 	 * @return The regular expression derived from the file pattern.
 	 */
-	private static String getRegEx(String filepattern) {
-		String metachar;
-
-		// all regular expression meta chars
-		StringTokenizer st = new StringTokenizer("( [ { \\ ^ $ | ) + .");
-
-		try {
-			// escape meta chars
-			while (st.hasMoreTokens()) {
-				metachar = st.nextToken();
-				filepattern = filepattern.replaceAll("\\" + metachar, "\\\\" + metachar);
+	public static String getRegEx(String filepattern) {
+		StringBuffer regex = new StringBuffer(filepattern.length() + 8);
+
+		for (int i = 0; i < filepattern.length(); i++) {
+			char c = filepattern.charAt(i);
+
+			switch (c) {
+			case '?':
+				// file pattern '?' means none, or one character
+				// none, or one char as regular expression is '.?'
+				regex.append(".?");
+				break;
+			case '*':
+				// file pattern '*' means none, one, or more chars
+				// none, one, or more chars as regular expression is '.*'
+				regex.append(".*");
+				break;
+			case '(':
+			case '[':
+			case '{':
+			case '\\':
+			case '^':
+			case '$':
+			case '|':
+			case ')':
+			case '+':
+			case '.':
+				// escape regular expression meta chars
+				regex.append('\\').append(c);
+				break;
+			default:
+				regex.append(c);
 			}
-
-			// change '?' to '.?'
-			// file pattern '?' means none, or one character
-			// none, or one char as regular expression is '.?'
-			filepattern = filepattern.replaceAll("\\?", ".?");
-
-			// change '*' to '.*'
-			// file pattern '*' means none, one, or more chars
-			// none, one, or more chars as regular expression is '.*'
-			filepattern = filepattern.replaceAll("\\*", ".*");
-
-		} catch (StringIndexOutOfBoundsException e) {
 		}
 
-		return filepattern;
+		return regex.toString();
 	}
 
 	/**
@@ -309,6 +582,196 @@ public abstract class FileTools {
 		return patterns;
 	}
 
+	/**
+	 * Updates an existing destination file in place: the files are compared
+	 * in blocks of the given size and only the blocks that differ are written;
+	 * the destination file is truncated or extended to the size of the source
+	 * file. If the destination file doesn't exist the file is copied (see
+	 * {@link #copy(File, File)}).
+	 * <p>
+	 * The destination file is always updated in place (even if
+	 * <code>dirsync.copy.atomic</code> is set), as writing a temporary file
+	 * would write the whole file again.
+	 * 
+	 * @param srcFile
+	 *            The file to copy.
+	 * @param dstFile
+	 *            The destination file to update.
+	 * @param blockSize
+	 *            The size of the compared blocks in bytes.
+	 * @param checksum
+	 *            The checksum to update with the bytes of the source file or
+	 *            <code>null</code>.
+	 * @return The number of bytes written.
+	 * @throws IOException
+	 * @throws WarningException
+	 * @throws ErrorException
+	 */
+	public static long copyDelta(File srcFile, File dstFile, int blockSize, Checksum checksum) throws IOException, WarningException, ErrorException {
+
+		if (!dstFile.isFile()) {
+			copy(srcFile, dstFile, checksum);
+			return dstFile.length();
+		}
+
+		// does source file exist ?
+		if (!srcFile.exists()) {
+			throw new ErrorException("Source file not found.");
+		}
+
+		// is source file really a file ?
+		if (!srcFile.isFile()) {
+			throw new ErrorException("Source isn't a file.");
+		}
+
+		// can the source file be read ?
+		if (!srcFile.canRead()) {
+			throw new ErrorException("Source file can't be read.");
+		}
+
+		// can the existing destination file be overwritten ?
+		if (!dstFile.canWrite()) {
+			throw new ErrorException("Destination file can't be overwritten.");
+		}
+
+		RandomAccessFile in = null;
+		RandomAccessFile out = null;
+		ByteBuffer srcBlock = null;
+		ByteBuffer dstBlock = null;
+		long written = 0;
+
+		try {
+			try {
+				in = new RandomAccessFile(srcFile, "r");
+			} catch (FileNotFoundException fnfe) {
+				throw new WarningException("Could not open input stream for file '" + srcFile + "' (probably because it is being used by another process)");
+			}
+
+			try {
+				out = new RandomAccessFile(dstFile, "rw");
+			} catch (FileNotFoundException fnfe) {
+				throw new WarningException("Could not open output stream for file '" + dstFile + "'");
+			}
+
+			FileChannel inChannel = in.getChannel();
+			FileChannel outChannel = out.getChannel();
+			long length = inChannel.size();
+			long dstLength = outChannel.size();
+
+			srcBlock = BufferPool.getPool().lease();
+			dstBlock = BufferPool.getPool().lease();
+			// blocks can't be larger than the pooled buffers
+			blockSize = Math.min(blockSize, srcBlock.capacity());
+
+			Progress.getProgress().fileStarted(null, srcFile, length);
+
+			int n;
+			for (long position = 0; position < length; position += n) {
+				n = (int) Math.min(blockSize, length - position);
+				readFully(inChannel, srcBlock, position, n);
+				if (checksum != null) {
+					checksum.update(srcBlock);
+					srcBlock.rewind();
+				}
+
+				// blocks beyond the end of the destination file are written
+				boolean equal = false;
+				if (position + n <= dstLength) {
+					readFully(outChannel, dstBlock, position, n);
+					equal = srcBlock.equals(dstBlock);
+				}
+
+				if (!equal) {
+					while (srcBlock.hasRemaining()) {
+						outChannel.write(srcBlock, position + srcBlock.position());
+					}
+					written += n;
+				}
+
+				Progress.getProgress().bytesCopied(n);
+			}
+
+			if (dstLength > length) {
+				out.setLength(length);
+			}
+
+			in.close();
+			out.close();
+
+			// copy the file modification date
+			long lastModified = srcFile.lastModified();
+			// solves the problem of files without modification time on NTFS
+			if (lastModified < 0) {
+				lastModified = 0;
+			}
+			dstFile.setLastModified(lastModified);
+
+			Fsync.dataWritten(dstFile);
+			Fsync.replaced(dstFile);
+
+		} finally {
+			BufferPool.getPool().release(srcBlock);
+			BufferPool.getPool().release(dstBlock);
+			try {
+				// always close the files
+				if (in != null) {
+					in.close();
+				}
+				if (out != null) {
+					out.close();
+				}
+			} catch (Exception e) {
+			}
+		}
+
+		return written;
+	}
+
+	/**
+	 * Reads the given number of bytes at the given position into the buffer.
+	 * The buffer is flipped for reading afterwards.
+	 * 
+	 * @param channel
+	 *            The file to read.
+	 * @param buffer
+	 *            The buffer.
+	 * @param position
+	 *            The position in the file.
+	 * @param n
+	 *            The number of bytes to read.
+	 * @throws IOException
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int n) throws IOException {
+		buffer.clear();
+		buffer.limit(n);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) == -1) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Creates a new checksum for verifying copied files. The algorithm is set
+	 * by the property <code>dirsync.verify.checksum</code>: CRC32C (the
+	 * default, hardware accelerated on most platforms), CRC32, or Adler32.
+	 * 
+	 * @return The new checksum.
+	 */
+	public static Checksum newChecksum() {
+		String algorithm = (DirSync.getProperties() != null) ? DirSync
+				.getProperties().getProperty("dirsync.verify.checksum", "CRC32C") : "CRC32C";
+
+		if (algorithm.equalsIgnoreCase("CRC32")) {
+			return new CRC32();
+		} else if (algorithm.equalsIgnoreCase("Adler32")) {
+			return new Adler32();
+		} else {
+			return new CRC32C();
+		}
+	}
+
 	/**
 	 * Checks if the given <code>File</code> matches the given patterns
 	 * (regular expressions).
@@ -321,15 +784,28 @@ public abstract class FileTools {
 	 *         and <code>false</code> otherwise.
 	 */
 	public static boolean checkFileMatchesPatterns(File file, String[] patterns) {
-		boolean match = false;
-
 		for (int i = 0; i < patterns.length; i++) {
 			if (DirectoryLister.matchDependingOnOS(file.getName(), patterns[i])) {
-				match = true; // file matches file include pattern
+				return true; // file matches file include pattern
 			}
 		}
 
-		return match;
+		return false;
+	}
+
+	/**
+	 * Checks if the given <code>File</code> matches the given precompiled
+	 * patterns.
+	 * 
+	 * @param file
+	 *            The file to check against the patterns.
+	 * @param patterns
+	 *            The patterns to match the file against.
+	 * @return <code>true</code> if the file matches one of the patterns and
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean checkFileMatchesPatterns(File file, PatternMatcher patterns) {
+		return patterns.matches(file.getName());
 	}
 
 	/**
@@ -353,29 +829,41 @@ public abstract class FileTools {
 	 * @return The checksum.
 	 */
 	public static long checksum(File file) {
+		return checksum(file, new CRC32());
+	}
+
+	/**
+	 * Calculates the checksum of the given file with the given algorithm.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @param checksum
+	 *            The (new) checksum to calculate.
+	 * @return The checksum of the file.
+	 */
+	public static long checksum(File file, Checksum checksum) {
 		// The input stream
 		FileInputStream in = null;
-		// The checksum
-		Checksum checksum = null;
+		ByteBuffer buffer = null;
 
 		try {
 
 			in = new FileInputStream(file);
-			checksum = new CRC32();
-
-			int bytes_read; // wie viele bytes wurden schon eingelesen?
-
-			// einlesen der daten in den buffer und dann schreiben, so lange
-			// bis wir am ende des files sind
-			// (wenn read() '-1' zurueckgibt):
-			while ((bytes_read = in.read(buffers)) != -1) {
-				checksum.update(buffers, 0, bytes_read);
+			FileChannel channel = in.getChannel();
+			buffer = BufferPool.getPool().lease();
+
+			// read the file until the end is reached (read() returns -1)
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				checksum.update(buffer);
+				buffer.clear();
 			}
 
 		} catch (IOException e) {
 			throw new Error(e.getMessage());
 
 		} finally {
+			BufferPool.getPool().release(buffer);
 			if (in != null) {
 				try {
 					in.close(); // always close streams.
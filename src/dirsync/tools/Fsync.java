@@ -0,0 +1,238 @@
+/*
+ * Fsync.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import dirsync.DirSync;
+import dirsync.exceptions.ErrorException;
+
+/**
+ * Forces written destination files to disk according to the policy
+ * <code>dirsync.copy.fsync</code>:
+ * <ul>
+ * <li><code>none</code>: files are never forced to disk,</li>
+ * <li><code>file</code>: every file is forced to disk before it replaces the
+ * destination file, its directory afterwards,</li>
+ * <li><code>directory</code>: the files written into a destination directory
+ * are forced to disk together when the directory is finished, followed by the
+ * directory itself,</li>
+ * <li><code>run</code>: all written files and their directories are forced to
+ * disk when the copying of a directory definition is finished (before its
+ * files are deleted and its index is written).</li>
+ * </ul>
+ * Forcing a directory isn't supported on every platform; failures are
+ * ignored.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public abstract class Fsync {
+
+	/** Never force files to disk. */
+	public static final String NONE = "none";
+
+	/** Force every file to disk. */
+	public static final String FILE = "file";
+
+	/** Force the files of a directory to disk when it is finished. */
+	public static final String DIRECTORY = "directory";
+
+	/** Force all files to disk when a directory definition is copied. */
+	public static final String RUN = "run";
+
+	// the files not yet forced to disk: directory -> Set of files
+	private static final Map pending = new HashMap();
+
+	// Don't let anyone instantiate this class.
+	private Fsync() {
+	}
+
+	/**
+	 * Gets the configured policy.
+	 *
+	 * @return One of <code>NONE</code>, <code>FILE</code>,
+	 *         <code>DIRECTORY</code> or <code>RUN</code>.
+	 */
+	public static String getPolicy() {
+		String policy = DirSync.getProperties().getProperty("dirsync.copy.fsync", NONE).trim().toLowerCase();
+
+		if (policy.equals(FILE)) {
+			return FILE;
+		} else if (policy.equals(DIRECTORY)) {
+			return DIRECTORY;
+		} else if (policy.equals(RUN)) {
+			return RUN;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Called when the data of a file has been written completely (before it
+	 * replaces the destination file).
+	 *
+	 * @param file
+	 *            The written file.
+	 * @throws ErrorException
+	 *             If the file could not be forced to disk.
+	 */
+	static void dataWritten(File file) throws ErrorException {
+		if (getPolicy() == FILE) {
+			try {
+				force(file, false);
+			} catch (IOException e) {
+				throw new ErrorException("Written file could not be forced to disk ("
+						+ e.getMessage() + ").", e);
+			}
+		}
+	}
+
+	/**
+	 * Called when a written file has been put in place.
+	 *
+	 * @param file
+	 *            The destination file.
+	 * @throws ErrorException
+	 *             If the directory could not be forced to disk.
+	 */
+	static void replaced(File file) throws ErrorException {
+		String policy = getPolicy();
+
+		if (policy == FILE) {
+			try {
+				force(file.getAbsoluteFile().getParentFile(), true);
+			} catch (IOException e) {
+				throw new ErrorException("Written file could not be forced to disk ("
+						+ e.getMessage() + ").", e);
+			}
+		} else if (policy != NONE) {
+			File dir = file.getAbsoluteFile().getParentFile();
+			synchronized (pending) {
+				Set files = (Set) pending.get(dir);
+				if (files == null) {
+					files = new LinkedHashSet();
+					pending.put(dir, files);
+				}
+				files.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Called when all files of a destination directory have been copied.
+	 * With the policy <code>directory</code> the files written into the
+	 * directory and the directory are forced to disk; at the end of a
+	 * directory definition all pending files are forced to disk with the
+	 * policies <code>directory</code> and <code>run</code>.
+	 *
+	 * @param dir
+	 *            The destination directory or <code>null</code> for all
+	 *            directories (at the end of a directory definition).
+	 * @throws IOException
+	 */
+	public static void finished(File dir) throws IOException {
+		String policy = getPolicy();
+
+		if (dir == null) {
+			if (policy == DIRECTORY || policy == RUN) {
+				flush();
+			}
+			return;
+		}
+		if (policy != DIRECTORY) {
+			return;
+		}
+
+		Set files;
+		synchronized (pending) {
+			files = (Set) pending.remove(dir.getAbsoluteFile());
+		}
+		if (files != null) {
+			force(dir.getAbsoluteFile(), files);
+		}
+	}
+
+	/**
+	 * Forces all written files and their directories to disk (at the end of
+	 * a directory definition and of the synchronization).
+	 *
+	 * @throws IOException
+	 */
+	public static void flush() throws IOException {
+		Map groups;
+		synchronized (pending) {
+			groups = new HashMap(pending);
+			pending.clear();
+		}
+
+		for (Iterator iter = groups.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			force((File) entry.getKey(), (Set) entry.getValue());
+		}
+	}
+
+	/**
+	 * Forces the given files and then their directory to disk.
+	 */
+	private static void force(File dir, Set files) throws IOException {
+		for (Iterator iter = files.iterator(); iter.hasNext();) {
+			File file = (File) iter.next();
+			// the file may have been deleted since
+			if (file.isFile()) {
+				force(file, false);
+			}
+		}
+		force(dir, true);
+	}
+
+	/**
+	 * Forces a file or a directory to disk.
+	 */
+	private static void force(File file, boolean directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(file.toPath(), directory ? StandardOpenOption.READ
+					: StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			if (directory) {
+				return; // not supported on this platform
+			}
+			throw e;
+		}
+
+		try {
+			channel.force(true);
+		} catch (IOException e) {
+			if (!directory) {
+				throw e;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+}
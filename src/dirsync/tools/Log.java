@@ -31,15 +31,68 @@ import dirsync.exceptions.IncompleteConfigurationException;
 
 /**
  * Represents a log file. Contains methods to create or continue a log file.
+ * <p>
+ * Messages are written to the file asynchronously: <code>print()</code> puts
+ * the line into a ring buffer (<code>dirsync.log.buffersize</code> lines) and
+ * a writer thread writes the buffered lines. The file is flushed every
+ * <code>dirsync.log.flushinterval</code> milliseconds or when
+ * <code>dirsync.log.flushsize</code> characters have been written since the
+ * last flush. <code>flush()</code> writes all buffered lines at once; the
+ * logs still open are flushed when the program exits.
+ * <p>
+ * The level of a log (<code>dirsync.log.level</code> or the level of the
+ * directory definition) decides which messages are logged: the summary of a
+ * synchronization, one line per action, the details of an action, or debug
+ * messages. Callers check <code>isLogged()</code> before building a message,
+ * so messages that aren't logged are never built.
  * 
  * @author E. Gerber , F. Gerbig (fgerbig@users.sourceforge.net)
  */
 public class Log {
 
+	/** Level: configuration, warnings, errors and totals only. */
+	public static final int SUMMARY = 0;
+
+	/** Level: one line for every copied or deleted file. */
+	public static final int ACTION = 1;
+
+	/** Level: the paths and details of every action. */
+	public static final int DETAIL = 2;
+
+	/** Level: unchanged files, too. */
+	public static final int DEBUG = 3;
+
+	private static final String[] LEVELS = { "summary", "action", "detail",
+			"debug" };
+
 	// the date formatter
 	private static final DateFormat DATE_FORMAT = new SimpleDateFormat(
 			"[yyyy.MM.dd HH:mm:ss] ");
 
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	// the second of the cached timestamp and the timestamp
+	private static long timestampSecond = -1;
+
+	private static String timestamp;
+
+	// the logs with a writer thread (flushed when the program exits)
+	private static final Set openLogs = new LinkedHashSet();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread("DirSync log flush") {
+			public void run() {
+				Log[] logs;
+				synchronized (openLogs) {
+					logs = (Log[]) openLogs.toArray(new Log[openLogs.size()]);
+				}
+				for (int i = 0; i < logs.length; i++) {
+					logs[i].flush();
+				}
+			}
+		});
+	}
+
 	// whether actions are logged.
 	private boolean enabled = false;
 
@@ -50,6 +103,31 @@ public class Log {
 
 	private Writer out;
 
+	// the lines not yet written (ring buffer)
+	private String[] lines;
+
+	private int head; // the oldest line
+
+	private int size; // the number of lines
+
+	// writing to the file (writer thread or flush())
+	private final Object writeLock = new Object();
+
+	private long lastFlush;
+
+	private long unflushed; // characters written since the last flush
+
+	private long flushInterval;
+
+	private long flushSize;
+
+	private Thread writer;
+
+	private boolean closed;
+
+	// the messages logged (see SUMMARY ... DEBUG)
+	private int level = getDefaultLevel();
+
 	/**
 	 * Initialize a new Log.
 	 * 
@@ -95,12 +173,38 @@ public class Log {
 				}
 				
 				out = new BufferedWriter(new FileWriter(file));
+				startWriter();
 			}
 		} catch (IOException e) {
 			throw new WarningException("Log file '" + filename + "' could not be created.");
 		}
 	}
 
+	/**
+	 * Starts the thread writing the buffered lines.
+	 */
+	private void startWriter() {
+		lines = new String[Math.max(16, DirSync.getIntProperty("dirsync.log.buffersize", 4096))];
+		flushInterval = Math.max(1, DirSync.getIntProperty("dirsync.log.flushinterval", 1000));
+		flushSize = Math.max(1, DirSync.getIntProperty("dirsync.log.flushsize", 65536));
+		lastFlush = System.currentTimeMillis();
+
+		writer = new Thread("DirSync log writer") {
+			public void run() {
+				while (waitForLines()) {
+					drain(false);
+				}
+				drain(true);
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+
+		synchronized (openLogs) {
+			openLogs.add(this);
+		}
+	}
+
 	/**
 	 * Writes a message with date and time to the log. If echo is enabled the
 	 * message is echoed to the console, too.
@@ -122,7 +226,7 @@ public class Log {
 	 *            The style to use for the message.
 	 */
 
-	public void print(String message, String style) {
+	public synchronized void print(String message, String style) {
 		// echo to console only if no gui selected and only messages to glogal log
 		if (DirSync.isOption_noGui() && (DirSync.getLog() == this)) {
 			System.out.println(message);
@@ -132,24 +236,232 @@ public class Log {
 			DirSync.getGui().print(message, style);
 		}
 		
+		if (enabled && !closed) {
+			// wait for the writer thread if the buffer is full
+			while (size == lines.length && enabled && !closed) {
+				notifyAll();
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (enabled && !closed && size < lines.length) {
+				lines[(head + size) % lines.length] = getTimestamp() + message;
+				size++;
+				// wake up the writer thread if the buffer is half full
+				if (size == lines.length / 2) {
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether messages of the given level are logged, so that
+	 * messages are only built if they are printed (to the log file, the
+	 * console or the GUI).
+	 * 
+	 * @param level
+	 *            The level of the message.
+	 * @return <code>true</code> if the message is logged.
+	 */
+	public boolean isLogged(int level) {
+		return level <= this.level
+				&& (enabled || DirSync.getGui() != null || (DirSync
+						.isOption_noGui() && DirSync.getLog() == this));
+	}
+
+	/**
+	 * Gets the level of the log.
+	 * 
+	 * @return One of <code>SUMMARY</code>, <code>ACTION</code>,
+	 *         <code>DETAIL</code> or <code>DEBUG</code>.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the level of the log.
+	 * 
+	 * @param level
+	 *            One of <code>SUMMARY</code>, <code>ACTION</code>,
+	 *            <code>DETAIL</code> or <code>DEBUG</code>.
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Gets the level set by <code>dirsync.log.level</code>.
+	 * 
+	 * @return The level (<code>DETAIL</code> if not set).
+	 */
+	public static int getDefaultLevel() {
+		return parseLevel((DirSync.getProperties() != null) ? DirSync
+				.getProperties().getProperty("dirsync.log.level") : null,
+				DETAIL);
+	}
+
+	/**
+	 * Gets the level of the given name.
+	 * 
+	 * @param name
+	 *            The name of the level ("summary", "action", "detail" or
+	 *            "debug").
+	 * @param defaultLevel
+	 *            The level returned if the name is unknown or empty.
+	 * @return The level.
+	 */
+	public static int parseLevel(String name, int defaultLevel) {
+		for (int i = 0; name != null && i < LEVELS.length; i++) {
+			if (LEVELS[i].equalsIgnoreCase(name.trim())) {
+				return i;
+			}
+		}
+		return defaultLevel;
+	}
+
+	/**
+	 * Gets the name of the given level.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @return The name.
+	 */
+	public static String getLevelName(int level) {
+		return LEVELS[Math.max(0, Math.min(LEVELS.length - 1, level))];
+	}
+
+	/**
+	 * @return The number of lines buffered but not yet written.
+	 */
+	public synchronized int getQueuedLines() {
+		return size;
+	}
+
+	/**
+	 * Writes all buffered lines to the file and flushes it.
+	 */
+	public void flush() {
+		if (writer != null) {
+			drain(true);
+		}
+	}
+
+	/**
+	 * Flushes and closes the log; the log isn't written anymore.
+	 */
+	public void close() {
+		if (writer == null) {
+			return;
+		}
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
 		try {
-			if (enabled) {
-				out.write(DATE_FORMAT.format(new Date()) + message + System.getProperty("line.separator"));
-				out.flush();
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (openLogs) {
+			openLogs.remove(this);
+		}
+		synchronized (writeLock) {
+			try {
+				out.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Waits until the buffer is half full, the flush interval is over or the
+	 * log is closed.
+	 * 
+	 * @return <code>false</code> if the log has been closed.
+	 */
+	private synchronized boolean waitForLines() {
+		if (!closed && size < lines.length / 2) {
+			try {
+				wait(flushInterval);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return !closed;
+	}
+
+	/**
+	 * Writes the buffered lines to the file.
+	 * 
+	 * @param flush
+	 *            <code>true</code> to flush the file in any case.
+	 */
+	private void drain(boolean flush) {
+		IOException failure = null;
+
+		synchronized (writeLock) {
+			String[] buffered;
+			synchronized (this) {
+				buffered = new String[size];
+				for (int i = 0; i < size; i++) {
+					buffered[i] = lines[(head + i) % lines.length];
+					lines[(head + i) % lines.length] = null;
+				}
+				head = (head + size) % lines.length;
+				size = 0;
+				notifyAll(); // wake up waiting print() calls
+			}
+
+			try {
+				for (int i = 0; i < buffered.length; i++) {
+					out.write(buffered[i]);
+					out.write(LINE_SEPARATOR);
+					unflushed += buffered[i].length() + LINE_SEPARATOR.length();
+				}
+
+				long now = System.currentTimeMillis();
+				if (unflushed > 0 && (flush || unflushed >= flushSize || now - lastFlush >= flushInterval)) {
+					out.flush();
+					unflushed = 0;
+					lastFlush = now;
+				}
+			} catch (IOException e) {
+				// the log can't be written anymore
+				synchronized (this) {
+					enabled = false;
+					size = 0;
+					notifyAll();
+				}
+				failure = e;
 			}
-		} catch (Exception e) {
-			throw new Error(e);
+		}
+
+		if (failure != null) {
+			DirSync.printError("    can't write to logfile '" + file.getAbsolutePath() + "': " + failure.getMessage());
 		}
 	}
 
 	/**
-	 * Close the log on garbage collection.
+	 * Gets the timestamp prefix of a line; the timestamp is formatted only
+	 * once per second.
 	 * 
-	 * @throws Throwable
+	 * @return The timestamp.
 	 */
-	protected void finalize() throws Throwable {
-		out.close();
-		super.finalize();
+	private static synchronized String getTimestamp() {
+		long now = System.currentTimeMillis();
+		if (now / 1000 != timestampSecond) {
+			timestampSecond = now / 1000;
+			timestamp = DATE_FORMAT.format(new Date(now));
+		}
+		return timestamp;
 	}
 
 	/**
@@ -0,0 +1,218 @@
+/*
+ * PatternMatcher.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dirsync.Const;
+
+/**
+ * Matches file names against a list of file patterns (e.g. '*.doc;*.txt').
+ * The patterns are compiled once: patterns without wildcards, patterns with
+ * a single leading or trailing '*', and patterns of the form '*text*' are
+ * compared directly; all other patterns are combined into a single regular
+ * expression. Under MS Windows the comparison is done case insensitive
+ * without converting the names.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class PatternMatcher {
+
+	private final boolean ignoreCase;
+
+	// true if one of the patterns matches every name
+	private final boolean matchAll;
+
+	private final String[] literals;
+
+	private final String[] prefixes;
+
+	private final String[] suffixes;
+
+	private final String[] infixes;
+
+	// the remaining patterns as one regular expression (null if none)
+	private final Pattern combined;
+
+	// one reusable matcher of the combined expression per thread
+	private final ThreadLocal matchers = new ThreadLocal();
+
+	/**
+	 * Compiles the given file patterns; case insensitive under MS Windows.
+	 *
+	 * @param pattern
+	 *            The file patterns separated by ',' or ';'.
+	 */
+	public PatternMatcher(String pattern) {
+		this(pattern, Const.runningUnderWindows);
+	}
+
+	/**
+	 * Compiles the given file patterns.
+	 *
+	 * @param pattern
+	 *            The file patterns separated by ',' or ';'.
+	 * @param ignoreCase
+	 *            <code>true</code> if names are matched case insensitive.
+	 */
+	public PatternMatcher(String pattern, boolean ignoreCase) {
+		List literalList = new ArrayList();
+		List prefixList = new ArrayList();
+		List suffixList = new ArrayList();
+		List infixList = new ArrayList();
+		StringBuffer regex = new StringBuffer();
+		boolean all = false;
+
+		StringTokenizer st = new StringTokenizer(pattern, ",;");
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken();
+			int stars = count(token, '*');
+
+			if (token.indexOf('?') != -1) {
+				addRegEx(regex, token);
+			} else if (stars == token.length()) {
+				all = true;
+			} else if (stars == 0) {
+				literalList.add(token);
+			} else if (stars == 1 && token.endsWith("*")) {
+				prefixList.add(token.substring(0, token.length() - 1));
+			} else if (stars == 1 && token.startsWith("*")) {
+				suffixList.add(token.substring(1));
+			} else if (stars == 2 && token.startsWith("*") && token.endsWith("*")) {
+				infixList.add(token.substring(1, token.length() - 1));
+			} else {
+				addRegEx(regex, token);
+			}
+		}
+
+		this.ignoreCase = ignoreCase;
+		this.matchAll = all;
+		this.literals = (String[]) literalList.toArray(new String[literalList.size()]);
+		this.prefixes = (String[]) prefixList.toArray(new String[prefixList.size()]);
+		this.suffixes = (String[]) suffixList.toArray(new String[suffixList.size()]);
+		this.infixes = (String[]) infixList.toArray(new String[infixList.size()]);
+
+		if (regex.length() == 0) {
+			combined = null;
+		} else if (ignoreCase) {
+			combined = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+		} else {
+			combined = Pattern.compile(regex.toString());
+		}
+	}
+
+	/**
+	 * Checks if the given name matches one of the patterns.
+	 *
+	 * @param name
+	 *            The name of a file or directory.
+	 * @return <code>true</code> if the name matches one of the patterns,
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean matches(String name) {
+		if (matchAll) {
+			return true;
+		}
+
+		int length = name.length();
+
+		for (int i = 0; i < literals.length; i++) {
+			if (literals[i].length() == length
+					&& name.regionMatches(ignoreCase, 0, literals[i], 0, length)) {
+				return true;
+			}
+		}
+		for (int i = 0; i < prefixes.length; i++) {
+			if (prefixes[i].length() <= length
+					&& name.regionMatches(ignoreCase, 0, prefixes[i], 0, prefixes[i].length())) {
+				return true;
+			}
+		}
+		for (int i = 0; i < suffixes.length; i++) {
+			int offset = length - suffixes[i].length();
+			if (offset >= 0
+					&& name.regionMatches(ignoreCase, offset, suffixes[i], 0, suffixes[i].length())) {
+				return true;
+			}
+		}
+		for (int i = 0; i < infixes.length; i++) {
+			if (contains(name, infixes[i])) {
+				return true;
+			}
+		}
+
+		if (combined != null) {
+			Matcher matcher = (Matcher) matchers.get();
+			if (matcher == null) {
+				matcher = combined.matcher(name);
+				matchers.set(matcher);
+			} else {
+				matcher.reset(name);
+			}
+			return matcher.matches();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks if there are no patterns, i.e. no name matches.
+	 *
+	 * @return <code>true</code> if no name matches.
+	 */
+	public boolean isEmpty() {
+		return !matchAll && literals.length == 0 && prefixes.length == 0
+				&& suffixes.length == 0 && infixes.length == 0 && combined == null;
+	}
+
+	private boolean contains(String name, String infix) {
+		if (!ignoreCase) {
+			return name.indexOf(infix) != -1;
+		}
+		for (int offset = name.length() - infix.length(); offset >= 0; offset--) {
+			if (name.regionMatches(true, offset, infix, 0, infix.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void addRegEx(StringBuffer regex, String filepattern) {
+		if (regex.length() > 0) {
+			regex.append('|');
+		}
+		regex.append("(?:").append(FileTools.getRegEx(filepattern)).append(')');
+	}
+
+	private static int count(String s, char c) {
+		int n = 0;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) == c) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
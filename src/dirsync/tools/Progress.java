@@ -0,0 +1,376 @@
+/*
+ * Progress.java
+ *
+ * Copyright (C) 2006 F. Gerbig (fgerbig@users.sourceforge.net)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package dirsync.tools;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import dirsync.DirSync;
+
+/**
+ * The progress of the running synchronization: the number of files
+ * processed and bytes copied, and the file being copied. The copy threads
+ * only add to counters; the GUI samples the progress at a fixed rate and
+ * calculates the throughput as moving average over the last
+ * <code>dirsync.progress.window</code> milliseconds.
+ *
+ * @author F. Gerbig (fgerbig@users.sourceforge.net)
+ */
+public class Progress {
+
+	private static final Progress progress = new Progress();
+
+	// the maximum number of samples kept for the moving average
+	private static final int SAMPLES = 256;
+
+	private final LongAdder files = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+	private final AtomicLong totalFiles = new AtomicLong();
+
+	private final LongAdder copied = new LongAdder();
+
+	private final LongAdder deleted = new LongAdder();
+
+	// the elapsed time per phase: name -> long[] {milliseconds}
+	private final Map phaseTimes = new LinkedHashMap();
+
+	// the file being copied (the file started last if copied in parallel)
+	private volatile String currentAction;
+
+	private volatile File currentFile;
+
+	private volatile long currentLength;
+
+	private volatile long currentPosition;
+
+	private volatile Thread currentOwner;
+
+	// the samples: time, files and bytes
+	private final long[] sampleTimes = new long[SAMPLES];
+
+	private final long[] sampleFiles = new long[SAMPLES];
+
+	private final long[] sampleBytes = new long[SAMPLES];
+
+	private int sampleCount;
+
+	private int sampleNext;
+
+	private double filesPerSecond;
+
+	private double bytesPerSecond;
+
+	/**
+	 * Gets the progress of the running synchronization.
+	 *
+	 * @return The progress.
+	 */
+	public static Progress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Resets the progress (at the start of a synchronization).
+	 */
+	public synchronized void reset() {
+		files.reset();
+		bytes.reset();
+		totalFiles.set(0);
+		copied.reset();
+		deleted.reset();
+		synchronized (phaseTimes) {
+			phaseTimes.clear();
+		}
+		currentAction = null;
+		currentFile = null;
+		currentLength = 0;
+		currentPosition = 0;
+		currentOwner = null;
+		sampleCount = 0;
+		sampleNext = 0;
+		filesPerSecond = 0;
+		bytesPerSecond = 0;
+	}
+
+	/**
+	 * Adds files to the number of files to process (when the files of a
+	 * directory definition have been counted).
+	 *
+	 * @param n
+	 *            The number of files.
+	 */
+	public void addTotalFiles(long n) {
+		totalFiles.addAndGet(n);
+	}
+
+	/**
+	 * Called when a file has been processed (copied or not).
+	 */
+	public void fileDone() {
+		files.increment();
+		if (currentOwner == Thread.currentThread()) {
+			currentFile = null;
+		}
+	}
+
+	/**
+	 * Called when a file has been copied.
+	 */
+	public void fileCopied() {
+		copied.increment();
+	}
+
+	/**
+	 * Called when a file or a directory has been deleted.
+	 */
+	public void fileDeleted() {
+		deleted.increment();
+	}
+
+	/**
+	 * Adds the time spent in a phase of a directory definition (e.g.
+	 * "Counting"). The times of the directory definitions are summed up.
+	 *
+	 * @param phase
+	 *            The name of the phase.
+	 * @param millis
+	 *            The elapsed time in milliseconds.
+	 */
+	public void addPhaseTime(String phase, long millis) {
+		synchronized (phaseTimes) {
+			long[] time = (long[]) phaseTimes.get(phase);
+			if (time == null) {
+				time = new long[1];
+				phaseTimes.put(phase, time);
+			}
+			time[0] += millis;
+		}
+	}
+
+	/**
+	 * Called when the copy (or another action) of a file starts.
+	 *
+	 * @param action
+	 *            The action shown before the file name (e.g. "Verify") or
+	 *            <code>null</code> for a copy.
+	 * @param file
+	 *            The file.
+	 * @param length
+	 *            The number of bytes to copy.
+	 */
+	public void fileStarted(String action, File file, long length) {
+		currentOwner = Thread.currentThread();
+		currentPosition = 0;
+		currentLength = length;
+		currentAction = action;
+		currentFile = file;
+	}
+
+	/**
+	 * Called when bytes have been copied.
+	 *
+	 * @param n
+	 *            The number of bytes copied since the last call.
+	 */
+	public void bytesCopied(long n) {
+		bytes.add(n);
+		// only the thread of the current file moves its position
+		if (currentOwner == Thread.currentThread()) {
+			currentPosition += n;
+		}
+	}
+
+	/**
+	 * Takes a sample and updates the throughput (called at a fixed rate).
+	 */
+	public synchronized void sample() {
+		long now = System.currentTimeMillis();
+		long window = Math.max(1000, DirSync.getIntProperty("dirsync.progress.window", 5000));
+
+		sampleTimes[sampleNext] = now;
+		sampleFiles[sampleNext] = files.sum();
+		sampleBytes[sampleNext] = bytes.sum();
+		int latest = sampleNext;
+		sampleNext = (sampleNext + 1) % SAMPLES;
+		sampleCount = Math.min(sampleCount + 1, SAMPLES);
+
+		// the oldest sample within the window
+		int oldest = latest;
+		for (int i = 1; i < sampleCount; i++) {
+			int index = (latest - i + SAMPLES) % SAMPLES;
+			if (now - sampleTimes[index] > window) {
+				break;
+			}
+			oldest = index;
+		}
+
+		long elapsed = now - sampleTimes[oldest];
+		if (elapsed > 0) {
+			filesPerSecond = (sampleFiles[latest] - sampleFiles[oldest]) * 1000.0 / elapsed;
+			bytesPerSecond = (sampleBytes[latest] - sampleBytes[oldest]) * 1000.0 / elapsed;
+		}
+	}
+
+	/**
+	 * @return The number of files processed.
+	 */
+	public long getFiles() {
+		return files.sum();
+	}
+
+	/**
+	 * @return The number of bytes copied.
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * @return The number of files copied.
+	 */
+	public long getCopied() {
+		return copied.sum();
+	}
+
+	/**
+	 * @return The number of files and directories deleted.
+	 */
+	public long getDeleted() {
+		return deleted.sum();
+	}
+
+	/**
+	 * Gets the time spent in a phase.
+	 *
+	 * @param phase
+	 *            The name of the phase.
+	 * @return The elapsed time in milliseconds (<code>0</code> if the phase
+	 *         hasn't ended yet).
+	 */
+	public long getPhaseTime(String phase) {
+		synchronized (phaseTimes) {
+			long[] time = (long[]) phaseTimes.get(phase);
+			return (time != null) ? time[0] : 0;
+		}
+	}
+
+	/**
+	 * Gets the time spent in the phases, e.g. "Counting 120 ms, Copying
+	 * 5300 ms".
+	 *
+	 * @return The text ("" if no phase has ended yet).
+	 */
+	public String getPhaseTimes() {
+		StringBuffer sb = new StringBuffer();
+		synchronized (phaseTimes) {
+			for (Iterator iter = phaseTimes.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry entry = (Map.Entry) iter.next();
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(entry.getKey()).append(' ').append(((long[]) entry.getValue())[0]).append(" ms");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return The number of files to process (<code>0</code> if unknown).
+	 */
+	public long getTotalFiles() {
+		return totalFiles.get();
+	}
+
+	/**
+	 * @return The name of the file being copied ("" if none).
+	 */
+	public String getCurrentName() {
+		File file = currentFile;
+		String action = currentAction;
+
+		if (file == null) {
+			return "";
+		}
+		return (action != null) ? action + " " + file.getName() : file.getName();
+	}
+
+	/**
+	 * @return The progress of the file being copied in per mille.
+	 */
+	public int getCurrentPerMille() {
+		long length = currentLength;
+		return (length > 0) ? (int) Math.min(1000, currentPosition * 1000 / length) : 0;
+	}
+
+	/**
+	 * @return The files processed per second (moving average).
+	 */
+	public synchronized double getFilesPerSecond() {
+		return filesPerSecond;
+	}
+
+	/**
+	 * @return The bytes copied per second (moving average).
+	 */
+	public synchronized double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Estimates the time until all files are processed.
+	 *
+	 * @return The remaining time in seconds or <code>-1</code> if unknown.
+	 */
+	public synchronized long getEta() {
+		long remaining = totalFiles.get() - files.sum();
+		if (remaining <= 0 || filesPerSecond <= 0) {
+			return -1;
+		}
+		return (long) Math.ceil(remaining / filesPerSecond);
+	}
+
+	/**
+	 * Gets the throughput and the estimated remaining time as text, e.g.
+	 * "12.3 MB/s, 45 files/s, ETA 0:01:23".
+	 *
+	 * @return The text.
+	 */
+	public String getStatus() {
+		StringBuffer sb = new StringBuffer();
+		double mbs = getBytesPerSecond() / (1024 * 1024);
+		sb.append(Math.round(mbs * 10) / 10.0).append(" MB/s, ");
+		sb.append(Math.round(getFilesPerSecond())).append(" files/s");
+
+		long eta = getEta();
+		if (eta >= 0) {
+			sb.append(", ETA ").append(eta / 3600).append(':');
+			sb.append((eta / 60 % 60 < 10) ? "0" : "").append(eta / 60 % 60).append(':');
+			sb.append((eta % 60 < 10) ? "0" : "").append(eta % 60);
+		}
+		return sb.toString();
+	}
+}
@@ -74,4 +74,12 @@ abstract class Xml {
 	static final String ATTR_DEL_FILES = "delfiles";
 
 	static final String ATTR_DEL_DIRS = "deldirs";
+
+	static final String ATTR_INDEXFILE = "indexfile";
+
+	static final String ATTR_MANIFEST = "manifest";
+
+	static final String ATTR_DELTACOPY = "deltacopy";
+
+	static final String ATTR_LOGLEVEL = "loglevel";
 }
\ No newline at end of file
@@ -183,6 +183,22 @@ public class XmlReader extends DefaultHandler {
 					.getValue(Xml.ATTR_DEL_DIRS) : "false";
 			dir.setDelDirs(Boolean.valueOf(att).booleanValue());
 
+			att = (atts.getValue(Xml.ATTR_INDEXFILE) != null) ? atts
+					.getValue(Xml.ATTR_INDEXFILE) : "";
+			dir.setIndexfile(att);
+
+			att = (atts.getValue(Xml.ATTR_MANIFEST) != null) ? atts
+					.getValue(Xml.ATTR_MANIFEST) : "";
+			dir.setManifestfile(att);
+
+			att = (atts.getValue(Xml.ATTR_DELTACOPY) != null) ? atts
+					.getValue(Xml.ATTR_DELTACOPY) : "false";
+			dir.setDeltaCopy(Boolean.valueOf(att).booleanValue());
+
+			att = (atts.getValue(Xml.ATTR_LOGLEVEL) != null) ? atts
+					.getValue(Xml.ATTR_LOGLEVEL) : "";
+			dir.setLogLevel(att);
+
 			dirs.add(dir);
 		}
 	}
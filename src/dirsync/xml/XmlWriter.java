@@ -90,6 +90,10 @@ public class XmlWriter {
 			tag += addAttr(Xml.ATTR_SYNC_NEW, dir.isCopyNew());
 			tag += addAttr(Xml.ATTR_DEL_FILES, dir.isDelFiles());
 			tag += addAttr(Xml.ATTR_DEL_DIRS, dir.isDelDirs());
+			tag += addAttr(Xml.ATTR_INDEXFILE, dir.getIndexfile());
+			tag += addAttr(Xml.ATTR_MANIFEST, dir.getManifestfile());
+			tag += addAttr(Xml.ATTR_DELTACOPY, dir.isDeltaCopy());
+			tag += addAttr(Xml.ATTR_LOGLEVEL, dir.getLogLevel());
 			writeEmptyTag(tag);
 		}
 
@@ -184,6 +188,14 @@ public class XmlWriter {
 				+ " (true|false) 'false'>");
 		writeln("<!ATTLIST " + Xml.TAG_DIR + " " + Xml.ATTR_DEL_DIRS
 				+ " (true|false) 'false'>");
+		writeln("<!ATTLIST " + Xml.TAG_DIR + " " + Xml.ATTR_INDEXFILE
+				+ " CDATA ''>");
+		writeln("<!ATTLIST " + Xml.TAG_DIR + " " + Xml.ATTR_MANIFEST
+				+ " CDATA ''>");
+		writeln("<!ATTLIST " + Xml.TAG_DIR + " " + Xml.ATTR_DELTACOPY
+				+ " (true|false) 'false'>");
+		writeln("<!ATTLIST " + Xml.TAG_DIR + " " + Xml.ATTR_LOGLEVEL
+				+ " CDATA ''>");
 		writeln("]>");
 	}
 